@@ -0,0 +1,5 @@
+#!/bin/sh
+
+# compares the latest run in two result files, e.g. ./compare.sh baseline.jsonl results.jsonl --threshold=5
+. settings.sh
+java -cp ./bin:$LIBRARIES com.marklogic.adamfowler.performance.ResultCompare "$@"
@@ -15,15 +15,39 @@
  */
 package com.marklogic.client.example.batch;
 
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentLinkedQueue;
-
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
@@ -37,10 +61,14 @@ import com.marklogic.client.extensions.ResourceManager;
 import com.marklogic.client.extensions.ResourceServices.ServiceResult;
 import com.marklogic.client.extensions.ResourceServices.ServiceResultIterator;
 import com.marklogic.client.io.BaseHandle;
-import com.marklogic.client.io.DOMHandle;
 import com.marklogic.client.io.DocumentMetadataHandle;
 import com.marklogic.client.io.Format;
-import com.marklogic.client.io.StringHandle;
+import com.marklogic.client.io.InputStreamHandle;
+import com.marklogic.client.io.OutputStreamHandle;
+import com.marklogic.client.io.OutputStreamSender;
+import com.marklogic.client.io.ReaderHandle;
+import com.marklogic.client.io.XMLEventReaderHandle;
+import com.marklogic.client.io.XMLStreamReaderHandle;
 import com.marklogic.client.io.marker.AbstractReadHandle;
 import com.marklogic.client.io.marker.AbstractWriteHandle;
 import com.marklogic.client.io.marker.XMLReadHandle;
@@ -98,6 +126,7 @@ public class BatchManager extends ResourceManager {
 // TODO: assemble a single thread-safe queue instead of two separate queues
 	public class BatchResponse implements Iterator<OutputItem> {
 		boolean success = false;
+		List<String> failedUris = Collections.emptyList();
 		Iterator<OutputItem> items;
 		ServiceResultIterator results;
 		BatchResponse() {
@@ -106,6 +135,13 @@ public class BatchManager extends ResourceManager {
 		public boolean getSuccess() {
 			return success;
 		}
+		/**
+		 * Lists the URIs of the items that did not succeed, without reading
+		 * through the response, so they are still there after close().
+		 */
+		public List<String> getFailedUris() {
+			return failedUris;
+		}
 		public boolean hasNext() {
 			if (items == null)
 				return false;
@@ -295,6 +331,14 @@ public class BatchManager extends ResourceManager {
 
 	static final public String NAME = "docbatch";
 
+	static final private XMLInputFactory XML_INPUT = XMLInputFactory.newInstance();
+
+	static final private AtomicInteger asyncThreadCount = new AtomicInteger();
+
+	private int                maxInFlight = 16;
+	private Semaphore          inFlight;
+	private ThreadPoolExecutor asyncExecutor;
+
 	public BatchManager(DatabaseClient client) {
 		super();
 		client.init(NAME, this);
@@ -302,108 +346,496 @@ public class BatchManager extends ResourceManager {
 	public BatchRequest newBatchRequest() {
 		return new BatchRequest();
 	}
+
+	/**
+	 * Sets the most batch requests applyAsync() keeps in flight through this
+	 * manager's client at once (default 16). Only takes effect before the
+	 * first call to applyAsync().
+	 */
+	public void setMaxInFlight(int maxInFlight) {
+		if (maxInFlight < 1)
+			throw new IllegalArgumentException("maxInFlight must be at least 1");
+		this.maxInFlight = maxInFlight;
+	}
+	public int getMaxInFlight() {
+		return maxInFlight;
+	}
+
+	/**
+	 * Sends the request on this manager's I/O threads and returns at once, so
+	 * the caller can build the next batch while this one is on the wire.
+	 * Waits, in the caller, only while the client already has its maximum
+	 * in flight. As with apply(), close the response once done with it.
+	 */
+	public CompletableFuture<BatchResponse> applyAsync(final BatchRequest request) {
+		final CompletableFuture<BatchResponse> future = new CompletableFuture<BatchResponse>();
+		startAsync();
+		try {
+			inFlight.acquire();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			future.completeExceptionally(e);
+			return future;
+		}
+		try {
+			asyncExecutor.execute(new Runnable() {
+				public void run() {
+					BatchResponse response = null;
+					Throwable     failure  = null;
+					try {
+						response = apply(request);
+					} catch (Throwable e) {
+						failure = e;
+					}
+					// free the slot first, so a callback can send another batch
+					inFlight.release();
+					if (failure == null)
+						future.complete(response);
+					else
+						future.completeExceptionally(failure);
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			inFlight.release();
+			future.completeExceptionally(e);
+		}
+		return future;
+	}
+	/**
+	 * Sends the request as applyAsync() does, then sends any writes or deletes
+	 * that fail again, as the policy allows.  The future completes with the
+	 * first response; the resends carry on in the background until
+	 * policy.awaitIdle() returns.
+	 */
+	public CompletableFuture<BatchResponse> applyAsync(final BatchRequest request, final BatchRetryPolicy policy) {
+		// counted before sending, so awaitIdle() cannot miss this batch
+		policy.begin();
+		CompletableFuture<BatchResponse> future = applyAsync(request);
+		future.whenComplete(new BiConsumer<BatchResponse,Throwable>() {
+			public void accept(BatchResponse response, Throwable failure) {
+				try {
+					if (failure == null)
+						retryFailed(request, response, policy);
+					else
+						retryFailed(request, failure, policy);
+				} catch (RuntimeException e) {
+					e.printStackTrace(System.out);
+				} finally {
+					policy.end();
+				}
+			}
+		});
+		return future;
+	}
+	/**
+	 * Sends the items of a request applied once already that failed again,
+	 * after a wait, as the policy allows.  Returns at once.
+	 */
+	public void retryFailed(BatchRequest request, BatchResponse response, BatchRetryPolicy policy) {
+		List<String> failed = response.getFailedUris();
+		policy.firstAttempt(request.items.size(), failed.size());
+		if (!failed.isEmpty())
+			resend(request, failed, 1, null, policy);
+	}
+	/**
+	 * Sends every item of a request that could not be applied at all again,
+	 * after a wait, as the policy allows.  Returns at once.
+	 */
+	public void retryFailed(BatchRequest request, Throwable failure, BatchRetryPolicy policy) {
+		policy.firstAttempt(request.items.size(), request.items.size());
+		resend(request, new ArrayList<String>(request.items.keySet()), 1, failure, policy);
+	}
+	private void resend(BatchRequest previous, Collection<String> uris, final int retry,
+			Throwable failure, final BatchRetryPolicy policy) {
+		if (retry >= policy.getMaxAttempts()) {
+			for (String uri: uris)
+				policy.deadLetter(uri, retry, "failed on every attempt", failure);
+			return;
+		}
+
+		final BatchRequest request = newBatchRequest();
+		for (String uri: uris) {
+			InputItem item = previous.items.get(uri);
+			if (item instanceof WriteInput) {
+				WriteInput witem = (WriteInput) item;
+				AbstractWriteHandle content = witem.content;
+				// a stream was used up by the last attempt
+				if (isSingleUse(content)) {
+					content = (policy.getContentSource() == null) ?
+							null : policy.getContentSource().reopen(uri, content);
+					if (content == null) {
+						policy.deadLetter(uri, retry, "content cannot be sent again", failure);
+						continue;
+					}
+				}
+				request.withWrite(uri, witem.metadata, content);
+			} else if (item instanceof DeleteInput) {
+				request.withDelete(uri);
+			}
+			// nothing is lost by a failed read, so the caller can read again
+		}
+		if (request.items.isEmpty())
+			return;
+
+		if (!policy.withdraw(request.items.size())) {
+			for (String uri: request.items.keySet())
+				policy.deadLetter(uri, retry, "retry budget exhausted", failure);
+			return;
+		}
+
+		policy.begin();
+		policy.schedule(new Runnable() {
+			public void run() {
+				CompletableFuture<BatchResponse> future;
+				try {
+					future = applyAsync(request);
+				} catch (RuntimeException e) {
+					e.printStackTrace(System.out);
+					policy.end();
+					return;
+				}
+				future.whenComplete(new BiConsumer<BatchResponse,Throwable>() {
+					public void accept(BatchResponse response, Throwable failure) {
+						try {
+							if (failure == null) {
+								List<String> failed = response.getFailedUris();
+								policy.recovered(request.items.size() - failed.size());
+								response.close();
+								if (!failed.isEmpty())
+									resend(request, failed, retry + 1, null, policy);
+							} else {
+								resend(request, new ArrayList<String>(request.items.keySet()),
+										retry + 1, failure, policy);
+							}
+						} catch (RuntimeException e) {
+							e.printStackTrace(System.out);
+						} finally {
+							policy.end();
+						}
+					}
+				});
+			}
+		}, policy.delayMillis(retry));
+	}
+	private boolean isSingleUse(AbstractWriteHandle content) {
+		if (content instanceof OutputStreamHandle)
+			return !((OutputStreamHandle) content).isResendable();
+		return (content instanceof InputStreamHandle || content instanceof ReaderHandle ||
+				content instanceof XMLStreamReaderHandle || content instanceof XMLEventReaderHandle);
+	}
+	private synchronized void startAsync() {
+		if (asyncExecutor != null)
+			return;
+
+		inFlight = new Semaphore(maxInFlight);
+		// one thread per request in flight, as apply() blocks for the response;
+		// idle threads exit, and they never keep the JVM alive
+		asyncExecutor = new ThreadPoolExecutor(maxInFlight, maxInFlight,
+				30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+				new ThreadFactory() {
+					public Thread newThread(Runnable runnable) {
+						Thread thread = new Thread(runnable, NAME+"-io-"+asyncThreadCount.incrementAndGet());
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+		asyncExecutor.allowCoreThreadTimeOut(true);
+	}
 	public BatchResponse apply(BatchRequest request) {
 		if (request == null)
 			return null;
 
-		StringHandle requestManifest  = new StringHandle();
+		// the manifest is written straight to the request as it is sent,
+		// so it is never held in memory whatever the size of the batch
+		OutputStreamHandle requestManifest = new OutputStreamHandle(new ManifestSender(request));
+		requestManifest.setFormat(Format.XML);
+		// the sender can write the manifest again if authentication needs a resend
+		requestManifest.setResendable(true);
 
-		ArrayList<AbstractWriteHandle> requestHandles = new ArrayList<AbstractWriteHandle>();
+		ArrayList<AbstractWriteHandle> requestHandles = new ArrayList<AbstractWriteHandle>(request.items.size() + 1);
 		requestHandles.add(requestManifest);
 
-		StringBuilder manifestBuilder = new StringBuilder();
-		manifestBuilder.append("<?xml version='1.0' encoding='UTF-8'?>\n");
-		manifestBuilder.append("<rapi:batch-requests xmlns:rapi='http://marklogic.com/rest-api'>\n");
-
 		ArrayList<String> readMimetypes = new ArrayList<String>();
 		// read the response manifest first
 		readMimetypes.add("application/xml");
+
+		collectParts(request, requestHandles, readMimetypes);
+
+		String[] requestMimetypes = new String[readMimetypes.size()];
+
+		ServiceResultIterator resultItr = getServices().post(
+				new RequestParameters(),
+				requestHandles.toArray(new AbstractWriteHandle[requestHandles.size()]),
+				requestMimetypes
+				);
+
+		if (!resultItr.hasNext())
+			throw new FailedRequestException("Could not executed batch request");
+		
+		// pulled straight into output items, with no DOM in between
+		InputStream responseManifest = resultItr.next().getContent(new InputStreamHandle()).get();
+
+		List<OutputItem> items = new ArrayList<OutputItem>();
+
+		boolean requestSuccess;
+		try {
+			requestSuccess = readManifest(responseManifest, items);
+		} catch (XMLStreamException e) {
+			throw new MarkLogicIOException(e);
+		} finally {
+			try {
+				responseManifest.close();
+			} catch (IOException e) {
+				// already read
+			}
+		}
+
+		BatchResponse response = new BatchResponse();
+		response.success = requestSuccess;
+		for (OutputItem item: items) {
+			if (!item.success) {
+				if (response.failedUris.isEmpty())
+					response.failedUris = new ArrayList<String>();
+				response.failedUris.add(item.uri);
+			}
+		}
+		response.items   = new ConcurrentLinkedQueue<OutputItem>(items).iterator();
+		response.results = resultItr;
+
+		return response;
+	}
+
+	/**
+	 * Builds the request manifest as a string, adding the content handle of
+	 * each write to requestHandles and the mimetype of each read to
+	 * readMimetypes. apply() streams the manifest instead.
+	 */
+	String buildManifest(BatchRequest request, List<AbstractWriteHandle> requestHandles, List<String> readMimetypes) {
+		collectParts(request, requestHandles, readMimetypes);
+		StringWriter manifest = new StringWriter();
+		try {
+			writeManifest(request, manifest);
+		} catch (IOException e) {
+			throw new MarkLogicIOException(e);
+		}
+		return manifest.toString();
+	}
+
+	/**
+	 * Adds the content handle of each write to requestHandles and the
+	 * mimetype of each read to readMimetypes, in manifest order.
+	 */
+	void collectParts(BatchRequest request, List<AbstractWriteHandle> requestHandles, List<String> readMimetypes) {
+		for (InputItem item: request.items.values()) {
+			if (item instanceof ReadInput) {
+				ReadInput ritem = (ReadInput) item;
+				if (ritem.mimetype != null)
+					readMimetypes.add(ritem.mimetype);
+			} else if (item instanceof WriteInput) {
+				WriteInput witem = (WriteInput) item;
+				if (witem.content != null)
+					requestHandles.add(witem.content);
+			}
+		}
+	}
+
+	/**
+	 * Writes the request manifest to out, one request at a time.
+	 */
+	void writeManifest(BatchRequest request, Writer out) throws IOException {
+		out.write("<?xml version='1.0' encoding='UTF-8'?>\n");
+		out.write("<rapi:batch-requests xmlns:rapi='http://marklogic.com/rest-api'>\n");
+
 		for (Map.Entry<String,InputItem> entry: request.items.entrySet()) {
 			String    uri  = entry.getKey();
 			InputItem item = entry.getValue();
 
 			if (item instanceof DeleteInput) {
-				manifestBuilder.append("<rapi:delete-request>\n");
+				out.write("<rapi:delete-request>\n");
 
-				manifestBuilder.append("<rapi:uri>");
-				manifestBuilder.append(uri);
-				manifestBuilder.append("</rapi:uri>\n");
+				out.write("<rapi:uri>");
+				out.write(uri);
+				out.write("</rapi:uri>\n");
 
-				manifestBuilder.append("</rapi:delete-request>\n");
+				out.write("</rapi:delete-request>\n");
 			} else if (item instanceof ReadInput) {
 				ReadInput ritem = (ReadInput) item;
-				manifestBuilder.append("<rapi:get-request>\n");
+				out.write("<rapi:get-request>\n");
 
-				manifestBuilder.append("<rapi:uri>");
-				manifestBuilder.append(uri);
-				manifestBuilder.append("</rapi:uri>\n");
+				out.write("<rapi:uri>");
+				out.write(uri);
+				out.write("</rapi:uri>\n");
 
 				if (ritem.categories != null && ritem.categories.size() > 0) {
-					StringBuilder categoryBuilder = new StringBuilder();
-					categoryBuilder.append("<rapi:metadata>\n");
+					out.write("<rapi:metadata>\n");
 
 					for (DocumentManager.Metadata category: ritem.categories) {
-						categoryBuilder.append("<rapi:");
-						categoryBuilder.append(category.name().toLowerCase());
-						categoryBuilder.append("/>\n");
+						out.write("<rapi:");
+						out.write(category.name().toLowerCase());
+						out.write("/>\n");
 					}
 
-					categoryBuilder.append("</rapi:metadata>\n");
-
-					manifestBuilder.append(categoryBuilder.toString());
+					out.write("</rapi:metadata>\n");
 				}
 
 				if (ritem.mimetype != null) {
-					readMimetypes.add(ritem.mimetype);
-
-					manifestBuilder.append("<rapi:content-mimetype>");
-					manifestBuilder.append(ritem.mimetype);
-					manifestBuilder.append("</rapi:content-mimetype>\n");
+					out.write("<rapi:content-mimetype>");
+					out.write(ritem.mimetype);
+					out.write("</rapi:content-mimetype>\n");
 				}
 				
-				manifestBuilder.append("</rapi:get-request>\n");
+				out.write("</rapi:get-request>\n");
 			} else if (item instanceof WriteInput) {
 				WriteInput witem = (WriteInput) item;
-				manifestBuilder.append("<rapi:put-request>\n");
+				out.write("<rapi:put-request>\n");
 
-				manifestBuilder.append("<rapi:uri>");
-				manifestBuilder.append(uri);
-				manifestBuilder.append("</rapi:uri>\n");
+				out.write("<rapi:uri>");
+				out.write(uri);
+				out.write("</rapi:uri>\n");
 
 				if (witem.content != null) {
-					manifestBuilder.append("<rapi:content-mimetype>");
-					manifestBuilder.append(witem.getContentMimetype());
-					manifestBuilder.append("</rapi:content-mimetype>\n");
-
-					requestHandles.add(witem.content);
+					out.write("<rapi:content-mimetype>");
+					out.write(witem.getContentMimetype());
+					out.write("</rapi:content-mimetype>\n");
 				}
 
-				manifestBuilder.append("</rapi:put-request>\n");
+				out.write("</rapi:put-request>\n");
 			} 
 		}
 
-		manifestBuilder.append("</rapi:batch-requests>\n");
-		requestManifest.set(manifestBuilder.toString());
-		requestManifest.setFormat(Format.XML);
+		out.write("</rapi:batch-requests>\n");
+	}
 
-		String[] requestMimetypes = new String[readMimetypes.size()];
+	/**
+	 * Writes a request's manifest as the first part of the multipart body.
+	 */
+	class ManifestSender implements OutputStreamSender {
+		private BatchRequest request;
 
-		ServiceResultIterator resultItr = getServices().post(
-				new RequestParameters(),
-				requestHandles.toArray(new AbstractWriteHandle[requestHandles.size()]),
-				requestMimetypes
-				);
+		ManifestSender(BatchRequest request) {
+			super();
+			this.request = request;
+		}
 
-		if (!resultItr.hasNext())
-			throw new FailedRequestException("Could not executed batch request");
-		
-		DOMHandle responseManifest = resultItr.next().getContent(new DOMHandle());
+		public void write(OutputStream out) throws IOException {
+			Writer writer = new BufferedWriter(new OutputStreamWriter(out, "UTF-8"));
+			writeManifest(request, writer);
+			// the rest of the body follows, so flush but leave the stream open
+			writer.flush();
+		}
+	}
 
-		List<OutputItem> items = new ArrayList<OutputItem>();
+	/**
+	 * Pulls the response manifest into output items, returning whether every
+	 * request in the batch succeeded.
+	 */
+	boolean readManifest(InputStream responseManifest, List<OutputItem> items) throws XMLStreamException {
+		boolean requestSuccess = true;
+
+		XMLStreamReader reader = XML_INPUT.createXMLStreamReader(responseManifest);
+		try {
+			// the rapi:batch-responses root
+			if (nextTag(reader) != XMLStreamConstants.START_ELEMENT)
+				return requestSuccess;
+
+			while (nextTag(reader) == XMLStreamConstants.START_ELEMENT) {
+				String  responseName  = reader.getLocalName();
+
+				String  itemUri       = null;
+				boolean itemSuccess   = false;
+				String  itemMetadata  = null;
+				String  itemContent   = null;
+				String  itemException = null;
+
+				while (nextTag(reader) == XMLStreamConstants.START_ELEMENT) {
+					String fieldName = reader.getLocalName();
+
+					if ("uri".equals(fieldName)) {
+						itemUri       = elementText(reader);
+					} else if ("request-succeeded".equals(fieldName)) {
+						itemSuccess   = "true".equals(elementText(reader));
+					} else if ("metadata-mimetype".equals(fieldName)) {
+						itemMetadata  = elementText(reader);
+					} else if ("content-mimetype".equals(fieldName)) {
+						itemContent   = elementText(reader);
+					} else if ("error-mimetype".equals(fieldName) ||
+							"request-failure".equals(fieldName)) {
+						// docbatch.xqy sends error-mimetype for a failed item
+						itemException = elementText(reader);
+					} else {
+						// TODO: warn
+						elementText(reader);
+					}
+				}
+
+				if (requestSuccess && !itemSuccess)
+					requestSuccess = false;
 
+				OutputItem item = newOutputItem(responseName,
+						itemUri, itemSuccess, itemMetadata, itemContent, itemException);
+				if (item != null)
+					items.add(item);
+			}
+		} finally {
+			reader.close();
+		}
+
+		return requestSuccess;
+	}
+
+	/**
+	 * Moves to the next start or end tag, skipping text, comments and
+	 * processing instructions, and returns which it found.
+	 */
+	static private int nextTag(XMLStreamReader reader) throws XMLStreamException {
+		while (reader.hasNext()) {
+			int event = reader.next();
+			if (event == XMLStreamConstants.START_ELEMENT || event == XMLStreamConstants.END_ELEMENT)
+				return event;
+		}
+		return XMLStreamConstants.END_DOCUMENT;
+	}
+
+	/**
+	 * The text content of the element the reader is on, as getTextContent()
+	 * would give it, leaving the reader on the element's end tag.
+	 */
+	static private String elementText(XMLStreamReader reader) throws XMLStreamException {
+		StringBuilder text  = null;
+		String        first = null;
+		int           depth = 1;
+		while (depth > 0) {
+			int event = reader.next();
+			if (event == XMLStreamConstants.START_ELEMENT) {
+				depth++;
+			} else if (event == XMLStreamConstants.END_ELEMENT) {
+				depth--;
+			} else if (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA
+					|| event == XMLStreamConstants.SPACE) {
+				// most fields are one text event, so only build a string when there are more
+				if (first == null) {
+					first = reader.getText();
+				} else {
+					if (text == null)
+						text = new StringBuilder(first);
+					text.append(reader.getText());
+				}
+			}
+		}
+		if (text != null)
+			return text.toString();
+		return (first == null) ? "" : first;
+	}
+
+	/**
+	 * Reads a parsed response manifest into output items, returning whether
+	 * every request in the batch succeeded. apply() pulls the manifest
+	 * instead; this is kept as the DOM baseline for BatchManagerBenchmark.
+	 */
+	boolean readManifest(Document responseManifest, List<OutputItem> items) {
 		boolean requestSuccess = true;
 
-		NodeList responseItems = responseManifest.get().getDocumentElement().getChildNodes();
+		NodeList responseItems = responseManifest.getDocumentElement().getChildNodes();
 		int      responseCount = responseItems.getLength();
 		for (int i=0; i < responseCount; i++) {
 			Node responseNode = responseItems.item(i);
@@ -434,7 +866,8 @@ public class BatchManager extends ResourceManager {
 					itemMetadata  = fieldItem.getTextContent();
 				} else if ("content-mimetype".equals(fieldName)) {
 					itemContent   = fieldItem.getTextContent();
-				} else if ("request-failure".equals(fieldName)) {
+				} else if ("error-mimetype".equals(fieldName) ||
+						"request-failure".equals(fieldName)) {
 					itemException = fieldItem.getTextContent();
 				} else {
 					// TODO: warn
@@ -444,47 +877,54 @@ public class BatchManager extends ResourceManager {
 			if (requestSuccess && !itemSuccess)
 				requestSuccess = false;
 
-			String responseName = responseItem.getLocalName();
-			if ("delete-response".equals(responseName)) {
-				DeleteOutput deleteOutput = new DeleteOutput();
-				deleteOutput.uri = itemUri;
-				deleteOutput.success = itemSuccess;
-				if (itemException != null) {
-					deleteOutput.exceptionMimetype = itemException;
-				}
-				items.add(deleteOutput);
-			} else if ("get-response".equals(responseName)) {
-				ReadOutput readOutput = new ReadOutput();
-				readOutput.uri = itemUri;
-				readOutput.success = itemSuccess;
-				if (itemException != null) {
-					readOutput.exceptionMimetype = itemException;
-				} else {
-					if (itemMetadata != null) {
-						readOutput.metadataMimetype = itemMetadata;
-					}
-					if (itemContent != null) {
-						// TODO: set format
-						readOutput.contentMimetype = itemContent;
-					}
+			OutputItem item = newOutputItem(responseItem.getLocalName(),
+					itemUri, itemSuccess, itemMetadata, itemContent, itemException);
+			if (item != null)
+				items.add(item);
+		}
+
+		return requestSuccess;
+	}
+
+	/**
+	 * The output item for one response element, or null if the element is
+	 * not a response this manager knows.
+	 */
+	private OutputItem newOutputItem(String responseName, String itemUri, boolean itemSuccess,
+			String itemMetadata, String itemContent, String itemException) {
+		if ("delete-response".equals(responseName)) {
+			DeleteOutput deleteOutput = new DeleteOutput();
+			deleteOutput.uri = itemUri;
+			deleteOutput.success = itemSuccess;
+			if (itemException != null) {
+				deleteOutput.exceptionMimetype = itemException;
+			}
+			return deleteOutput;
+		} else if ("get-response".equals(responseName)) {
+			ReadOutput readOutput = new ReadOutput();
+			readOutput.uri = itemUri;
+			readOutput.success = itemSuccess;
+			if (itemException != null) {
+				readOutput.exceptionMimetype = itemException;
+			} else {
+				if (itemMetadata != null) {
+					readOutput.metadataMimetype = itemMetadata;
 				}
-				items.add(readOutput);
-			} else if ("put-response".equals(responseName)) {
-				WriteOutput writeOutput = new WriteOutput();
-				writeOutput.uri = itemUri;
-				writeOutput.success = itemSuccess;
-				if (itemException != null) {
-					writeOutput.exceptionMimetype = itemException;
+				if (itemContent != null) {
+					// TODO: set format
+					readOutput.contentMimetype = itemContent;
 				}
-				items.add(writeOutput);
 			}
+			return readOutput;
+		} else if ("put-response".equals(responseName)) {
+			WriteOutput writeOutput = new WriteOutput();
+			writeOutput.uri = itemUri;
+			writeOutput.success = itemSuccess;
+			if (itemException != null) {
+				writeOutput.exceptionMimetype = itemException;
+			}
+			return writeOutput;
 		}
-
-		BatchResponse response = new BatchResponse();
-		response.success = requestSuccess;
-		response.items   = new ConcurrentLinkedQueue<OutputItem>(items).iterator();
-		response.results = resultItr;
-
-		return response;
+		return null;
 	}
 }
@@ -0,0 +1,229 @@
+/*
+ * Copyright 2012 MarkLogic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.marklogic.client.example.batch;
+
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.marklogic.client.io.marker.AbstractWriteHandle;
+
+/**
+ * BatchRetryPolicy governs how BatchManager sends the failed items of a batch
+ * again.  Each resend waits a random time up to a ceiling that doubles with
+ * every attempt (exponential backoff with full jitter), so clients that
+ * failed together do not retry together.  Resent items are drawn from a
+ * budget of a fixed allowance plus a fraction of the items sent the first
+ * time, so a server in trouble is not buried under retries.  Items that run
+ * out of attempts or budget go to the dead letter sink.  A policy may be
+ * shared by any number of managers, and keeps the counts for all of them.
+ */
+public class BatchRetryPolicy {
+	/**
+	 * Receives each item that will not be sent again.
+	 */
+	public interface DeadLetterSink {
+		public void deadLetter(String uri, int attempts, String reason, Throwable failure);
+	}
+
+	/**
+	 * Supplies the content for a URI again, for a write whose handle can
+	 * only be read once, such as an InputStreamHandle.  Given the handle the
+	 * last attempt used up, so the source can tell which content it held;
+	 * returns null if it cannot.
+	 */
+	public interface ContentSource {
+		public AbstractWriteHandle reopen(String uri, AbstractWriteHandle used);
+	}
+
+	final static private AtomicLong timerThreadCount = new AtomicLong();
+
+	private int            maxAttempts        = 4;
+	private long           initialDelayMillis = 100;
+	private long           maxDelayMillis     = 10000;
+	private double         budgetRatio        = 0.2;
+	private long           budgetMinimum      = 100;
+	private DeadLetterSink deadLetters;
+	private ContentSource  contentSource;
+
+	private long firstAttemptItems = 0;
+	private long retriedItems      = 0;
+	private int  outstanding       = 0;
+
+	private AtomicLong firstAttemptFailures = new AtomicLong();
+	private AtomicLong retryRequests        = new AtomicLong();
+	private AtomicLong recoveredItems       = new AtomicLong();
+	private AtomicLong deadLetteredItems    = new AtomicLong();
+
+	private ScheduledThreadPoolExecutor timer;
+
+	public BatchRetryPolicy() {
+		super();
+	}
+
+	/**
+	 * Sets the most times an item is sent, counting the first (default 4).
+	 */
+	public void setMaxAttempts(int maxAttempts) {
+		if (maxAttempts < 1)
+			throw new IllegalArgumentException("maxAttempts must be at least 1");
+		this.maxAttempts = maxAttempts;
+	}
+	public int getMaxAttempts() {
+		return maxAttempts;
+	}
+	/**
+	 * Sets the ceiling on the wait before the first resend (default 100 ms),
+	 * and the most any ceiling can grow to (default 10000 ms).
+	 */
+	public void setDelayMillis(long initialDelayMillis, long maxDelayMillis) {
+		if (initialDelayMillis < 0 || maxDelayMillis < initialDelayMillis)
+			throw new IllegalArgumentException("delays must be at least 0, and initial no more than max");
+		this.initialDelayMillis = initialDelayMillis;
+		this.maxDelayMillis     = maxDelayMillis;
+	}
+	public long getInitialDelayMillis() {
+		return initialDelayMillis;
+	}
+	public long getMaxDelayMillis() {
+		return maxDelayMillis;
+	}
+	/**
+	 * Sets how many items may be resent in all: minimum, plus ratio of the
+	 * items sent the first time (defaults 100 and 0.2).
+	 */
+	public synchronized void setBudget(double ratio, long minimum) {
+		if (ratio < 0 || minimum < 0)
+			throw new IllegalArgumentException("budget cannot be negative");
+		this.budgetRatio   = ratio;
+		this.budgetMinimum = minimum;
+	}
+	public void setDeadLetterSink(DeadLetterSink deadLetters) {
+		this.deadLetters = deadLetters;
+	}
+	public void setContentSource(ContentSource contentSource) {
+		this.contentSource = contentSource;
+	}
+	public ContentSource getContentSource() {
+		return contentSource;
+	}
+
+	/**
+	 * Items that failed the first time they were sent.
+	 */
+	public long getFirstAttemptFailures() {
+		return firstAttemptFailures.get();
+	}
+	public long getRetryRequests() {
+		return retryRequests.get();
+	}
+	public synchronized long getRetriedItems() {
+		return retriedItems;
+	}
+	/**
+	 * Items that failed at first and succeeded on a resend.
+	 */
+	public long getRecoveredItems() {
+		return recoveredItems.get();
+	}
+	public long getDeadLetteredItems() {
+		return deadLetteredItems.get();
+	}
+
+	/**
+	 * Zeroes the counts and refills the budget.
+	 */
+	public synchronized void reset() {
+		firstAttemptItems = 0;
+		retriedItems      = 0;
+		firstAttemptFailures.set(0);
+		retryRequests.set(0);
+		recoveredItems.set(0);
+		deadLetteredItems.set(0);
+	}
+
+	/**
+	 * Waits until no batch sent with this policy has a resend still to come.
+	 */
+	public synchronized void awaitIdle() throws InterruptedException {
+		while (outstanding > 0)
+			wait();
+	}
+
+	synchronized void begin() {
+		outstanding++;
+	}
+	synchronized void end() {
+		if (--outstanding == 0)
+			notifyAll();
+	}
+
+	synchronized void firstAttempt(int items, int failures) {
+		firstAttemptItems += items;
+		firstAttemptFailures.addAndGet(failures);
+	}
+	/**
+	 * Takes items from the budget, or none if there are not enough left.
+	 */
+	synchronized boolean withdraw(int items) {
+		if (retriedItems + items > budgetMinimum + (long) (budgetRatio * firstAttemptItems))
+			return false;
+		retriedItems += items;
+		retryRequests.incrementAndGet();
+		return true;
+	}
+	void recovered(int items) {
+		recoveredItems.addAndGet(items);
+	}
+
+	/**
+	 * The wait before the given resend, counting from 1.
+	 */
+	long delayMillis(int retry) {
+		long ceiling = initialDelayMillis;
+		for (int i = 1; i < retry && ceiling < maxDelayMillis; i++)
+			ceiling *= 2;
+		ceiling = Math.min(ceiling, maxDelayMillis);
+		return (ceiling == 0) ? 0 : ThreadLocalRandom.current().nextLong(ceiling + 1);
+	}
+	void schedule(Runnable resend, long delayMillis) {
+		timer().schedule(resend, delayMillis, TimeUnit.MILLISECONDS);
+	}
+	private synchronized ScheduledThreadPoolExecutor timer() {
+		if (timer == null) {
+			timer = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "batch-retry-"+timerThreadCount.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return timer;
+	}
+
+	void deadLetter(String uri, int attempts, String reason, Throwable failure) {
+		deadLetteredItems.incrementAndGet();
+		DeadLetterSink sink = deadLetters;
+		if (sink != null) {
+			sink.deadLetter(uri, attempts, reason, failure);
+		} else {
+			System.out.println("dead letter: "+uri+" after "+attempts+" attempt(s): "+reason);
+		}
+	}
+}
@@ -0,0 +1,378 @@
+/*
+ * Copyright 2012 MarkLogic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.marklogic.client.example.batch;
+
+import java.util.HashMap;
+import java.util.concurrent.Phaser;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+import com.marklogic.client.io.BytesHandle;
+import com.marklogic.client.io.FileHandle;
+import com.marklogic.client.io.StringHandle;
+import com.marklogic.client.io.marker.AbstractWriteHandle;
+
+/**
+ * BatchWriter collects documents written one at a time into batch requests
+ * and sends each batch through a BatchManager once it holds enough documents,
+ * enough bytes, or has waited long enough for more.  Any number of threads
+ * may write at once.  Batches are sent with applyAsync(), so several can be
+ * in flight while the next one fills; close() sends the last batch and waits
+ * for all of them to finish.
+ */
+public class BatchWriter {
+	/**
+	 * Why a batch was sent.
+	 */
+	public enum FlushTrigger {
+		COUNT, BYTES, LINGER, EXPLICIT;
+	}
+
+	/**
+	 * Receives the outcome of every batch, on the manager's I/O thread.  The
+	 * response is closed once the listener returns.
+	 */
+	public interface FlushListener {
+		public void flushed(BatchManager.BatchRequest request, int documents, long bytes,
+				long nanos, BatchManager.BatchResponse response);
+		public void failed(BatchManager.BatchRequest request, int documents, long bytes,
+				long nanos, Throwable failure);
+	}
+
+	final static private AtomicLong lingerThreadCount = new AtomicLong();
+
+	private BatchManager  manager;
+	private int           batchSize    = 100;
+	private long          batchBytes   = 10 * 1024 * 1024;
+	private long          lingerMillis = 1000;
+	private FlushListener listener;
+	private BatchRetryPolicy retryPolicy;
+
+	private BatchManager.BatchRequest request;
+	// the length of each URI in the batch, so a URI written again replaces its length too
+	private HashMap<String,Long>      lengths = new HashMap<String,Long>();
+	private int                       documents;
+	private long                      bytes;
+	private long                      generation;
+	private ScheduledFuture<?>        lingerTask;
+	private boolean                   closed = false;
+
+	private ScheduledThreadPoolExecutor lingerTimer;
+	// one party for the writer, and one for each batch until it finishes
+	private Phaser     pending         = new Phaser(1);
+	private long[]     flushes         = new long[FlushTrigger.values().length];
+	private AtomicLong documentsSent   = new AtomicLong();
+	private AtomicLong batchesSent     = new AtomicLong();
+	private AtomicLong batchesFailed   = new AtomicLong();
+
+	public BatchWriter(BatchManager manager) {
+		super();
+		if (manager == null)
+			throw new IllegalArgumentException("No batch manager");
+		this.manager = manager;
+	}
+
+	/**
+	 * Sets the documents after which a batch is sent (default 100).
+	 */
+	public synchronized void setBatchSize(int batchSize) {
+		if (batchSize < 1)
+			throw new IllegalArgumentException("batchSize must be at least 1");
+		this.batchSize = batchSize;
+	}
+	public synchronized int getBatchSize() {
+		return batchSize;
+	}
+	/**
+	 * Sets the content bytes after which a batch is sent (default 10 MB), or
+	 * 0 for no limit.
+	 */
+	public synchronized void setBatchBytes(long batchBytes) {
+		if (batchBytes < 0)
+			throw new IllegalArgumentException("batchBytes cannot be negative");
+		this.batchBytes = batchBytes;
+	}
+	public synchronized long getBatchBytes() {
+		return batchBytes;
+	}
+	/**
+	 * Sets how long the first document of a batch waits for the batch to fill
+	 * before it is sent anyway (default 1000 ms), or 0 to wait for the count or
+	 * byte limit or a flush().  Takes effect from the next batch.
+	 */
+	public synchronized void setLingerMillis(long lingerMillis) {
+		if (lingerMillis < 0)
+			throw new IllegalArgumentException("lingerMillis cannot be negative");
+		this.lingerMillis = lingerMillis;
+	}
+	public synchronized long getLingerMillis() {
+		return lingerMillis;
+	}
+	public synchronized void setListener(FlushListener listener) {
+		this.listener = listener;
+	}
+	/**
+	 * Has the items of each batch that fail sent again under the policy.
+	 * The listener still hears only of the first attempt.
+	 */
+	public synchronized void setRetryPolicy(BatchRetryPolicy retryPolicy) {
+		this.retryPolicy = retryPolicy;
+	}
+
+	/**
+	 * Adds a document to the current batch, sizing it from the handle where
+	 * the handle holds its content in memory or in a file.  A string is sized
+	 * at its UTF-8 length.
+	 */
+	public void write(String uri, AbstractWriteHandle content) {
+		write(uri, content, sizeOf(content));
+	}
+	/**
+	 * Adds a document of the given length to the current batch, and sends the
+	 * batch if that fills it.  As in a BatchRequest, a URI written twice in one
+	 * batch keeps only the later content, and counts once, at the later length,
+	 * towards the batch limits.  Sending waits, in this thread, while
+	 * the manager already has its most batches in flight.
+	 */
+	public void write(String uri, AbstractWriteHandle content, long length) {
+		if (uri == null)
+			throw new IllegalArgumentException("No uri");
+
+		Flush flush = null;
+		synchronized(this) {
+			if (closed)
+				throw new IllegalStateException("BatchWriter is closed");
+
+			if (request == null)
+				startBatch();
+			request.withWrite(uri, content);
+			Long replaced = lengths.put(uri, length);
+			if (replaced == null)
+				documents++;
+			else
+				bytes -= replaced;
+			bytes += length;
+
+			if (documents >= batchSize)
+				flush = takeBatch(FlushTrigger.COUNT);
+			else if (batchBytes > 0 && bytes >= batchBytes)
+				flush = takeBatch(FlushTrigger.BYTES);
+		}
+		// another thread can fill the next batch while this one is handed over
+		send(flush);
+	}
+
+	/**
+	 * Sends the current batch now, if it holds anything.
+	 */
+	public void flush() {
+		Flush flush = null;
+		synchronized(this) {
+			flush = takeBatch(FlushTrigger.EXPLICIT);
+		}
+		send(flush);
+	}
+
+	/**
+	 * Sends the current batch and waits for every batch in flight to finish,
+	 * and for the retry policy to have nothing left to resend.  Writing
+	 * afterwards throws an IllegalStateException.
+	 */
+	public void close() throws InterruptedException {
+		Flush flush = null;
+		BatchRetryPolicy policy = null;
+		synchronized(this) {
+			if (closed)
+				return;
+			closed = true;
+			flush = takeBatch(FlushTrigger.EXPLICIT);
+		}
+		send(flush);
+		pending.arriveAndAwaitAdvance();
+		synchronized(this) {
+			if (lingerTimer != null) {
+				lingerTimer.shutdownNow();
+				lingerTimer = null;
+			}
+			policy = retryPolicy;
+		}
+		if (policy != null)
+			policy.awaitIdle();
+	}
+
+	public synchronized long getFlushCount(FlushTrigger trigger) {
+		return flushes[trigger.ordinal()];
+	}
+	/**
+	 * Documents in batches that came back successful.
+	 */
+	public long getDocumentsSent() {
+		return documentsSent.get();
+	}
+	public long getBatchesSent() {
+		return batchesSent.get();
+	}
+	/**
+	 * Batches that threw or came back unsuccessful.
+	 */
+	public long getBatchesFailed() {
+		return batchesFailed.get();
+	}
+
+	private void startBatch() {
+		request   = manager.newBatchRequest();
+		lengths.clear();
+		documents = 0;
+		bytes     = 0;
+		generation++;
+		if (lingerMillis > 0) {
+			final long lingering = generation;
+			lingerTask = lingerTimer().schedule(new Runnable() {
+				public void run() {
+					Flush flush = null;
+					synchronized(BatchWriter.this) {
+						// the batch may have filled and gone already
+						if (lingering == generation)
+							flush = takeBatch(FlushTrigger.LINGER);
+					}
+					send(flush);
+				}
+			}, lingerMillis, TimeUnit.MILLISECONDS);
+		}
+	}
+	private ScheduledThreadPoolExecutor lingerTimer() {
+		if (lingerTimer == null) {
+			lingerTimer = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "batch-writer-linger-"+lingerThreadCount.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+			lingerTimer.setRemoveOnCancelPolicy(true);
+		}
+		return lingerTimer;
+	}
+	private Flush takeBatch(FlushTrigger trigger) {
+		if (request == null)
+			return null;
+
+		if (lingerTask != null) {
+			lingerTask.cancel(false);
+			lingerTask = null;
+		}
+		Flush flush = new Flush(request, documents, bytes);
+		request = null;
+		lengths.clear();
+		flushes[trigger.ordinal()]++;
+		// registered while locked, so close() cannot miss a batch still being handed over
+		pending.register();
+		return flush;
+	}
+	private void send(Flush flush) {
+		if (flush == null)
+			return;
+		BatchRetryPolicy policy = null;
+		synchronized(this) {
+			policy = retryPolicy;
+		}
+		flush.start = System.nanoTime();
+		if (policy == null)
+			manager.applyAsync(flush.request).whenComplete(flush);
+		else
+			manager.applyAsync(flush.request, policy).whenComplete(flush);
+	}
+
+	private long sizeOf(AbstractWriteHandle content) {
+		if (content instanceof BytesHandle) {
+			byte[] contentBytes = ((BytesHandle) content).get();
+			return (contentBytes == null) ? 0 : contentBytes.length;
+		} else if (content instanceof StringHandle) {
+			String contentString = ((StringHandle) content).get();
+			return (contentString == null) ? 0 : utf8Length(contentString);
+		} else if (content instanceof FileHandle) {
+			return (((FileHandle) content).get() == null) ? 0 : ((FileHandle) content).get().length();
+		}
+		// a stream or tree: only the count and linger limits apply
+		return 0;
+	}
+	// the bytes a string is sent as, without encoding it
+	private long utf8Length(String content) {
+		long length = 0;
+		for (int i = 0; i < content.length(); i++) {
+			char c = content.charAt(i);
+			if (c < 0x80) {
+				length += 1;
+			} else if (c < 0x800) {
+				length += 2;
+			} else if (Character.isHighSurrogate(c) && i + 1 < content.length() &&
+					Character.isLowSurrogate(content.charAt(i + 1))) {
+				length += 4;
+				i++;
+			} else {
+				length += 3;
+			}
+		}
+		return length;
+	}
+
+	/**
+	 * One batch on its way, completed on the manager's I/O thread.
+	 */
+	private class Flush implements BiConsumer<BatchManager.BatchResponse,Throwable> {
+		BatchManager.BatchRequest request;
+		int  documents;
+		long bytes;
+		long start;
+		Flush(BatchManager.BatchRequest request, int documents, long bytes) {
+			this.request   = request;
+			this.documents = documents;
+			this.bytes     = bytes;
+		}
+		public void accept(BatchManager.BatchResponse response, Throwable failure) {
+			long nanos = System.nanoTime() - start;
+			try {
+				batchesSent.incrementAndGet();
+				if (failure == null && response.getSuccess())
+					documentsSent.addAndGet(documents);
+				else
+					batchesFailed.incrementAndGet();
+
+				FlushListener current = null;
+				synchronized(BatchWriter.this) {
+					current = listener;
+				}
+				if (current == null) {
+					if (failure != null)
+						failure.printStackTrace(System.out);
+				} else if (failure == null) {
+					current.flushed(request, documents, bytes, nanos, response);
+				} else {
+					current.failed(request, documents, bytes, nanos, failure);
+				}
+			} finally {
+				if (response != null)
+					response.close();
+				// anything thrown here would vanish into the future, so never skip this
+				pending.arriveAndDeregister();
+			}
+		}
+	}
+}
@@ -0,0 +1,18 @@
+#!/bin/sh
+
+# Builds and runs the JMH microbenchmarks in jmh/ against the current sources.
+# JMH is not shipped in lib/, so point JMH_LIBS at a folder holding jmh-core,
+# jmh-generator-annprocess, jopt-simple and commons-math3 jars, and OPENCSV at
+# the opencsv jar OpenCSVBatcher needs. Arguments go to JMH, e.g. a benchmark
+# name pattern such as ./jmh.sh Sanitizer
+# -prof gc reports allocation per operation as gc.alloc.rate.norm.
+. settings.sh
+if [ -z "$JMH_LIBS" ]; then
+  echo "Set JMH_LIBS to a folder of JMH jars"
+  exit 1
+fi
+CP=./jmh/bin:$LIBRARIES:$JMH_LIBS/*:$OPENCSV
+rm -rf ./jmh/bin
+mkdir -p ./jmh/bin
+javac -d ./jmh/bin -cp "$CP" $(find ./src ./jmh ./example/com/marklogic/client/example/batch -name '*.java') ./example/com/marklogic/client/example/cookbook/Util.java || exit 1
+java -cp "$CP" org.openjdk.jmh.Main -prof gc -rf json -rff jmh-result.json "$@"
@@ -0,0 +1,36 @@
+package com.marklogic.adamfowler.performance;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+/**
+ * Realistic inputs for the microbenchmarks: the documents of docs/0001 and
+ * the rows of example/data/listings.csv, found relative to the directory
+ * jmh.sh is run from unless -Djmh.docs= or -Djmh.csv= say otherwise.
+ */
+public class BenchmarkInputs {
+  public static byte[][] loadDocs(int limit) throws IOException {
+    Corpus corpus = Corpus.load(new File(System.getProperty("jmh.docs","docs/0001")));
+    byte[][] all = corpus.getBytes();
+    byte[][] docs = new byte[Math.min(limit,all.length)][];
+    System.arraycopy(all,0,docs,0,docs.length);
+    return docs;
+  }
+
+  public static String loadCsv() throws IOException {
+    return new String(Files.readAllBytes(new File(System.getProperty("jmh.csv","example/data/listings.csv")).toPath()),Corpus.UTF8);
+  }
+
+  /**
+   * The csv's header followed by its data rows repeated until there are rows of them.
+   */
+  public static String loadCsv(int rows) throws IOException {
+    String[] lines = loadCsv().split("\r?\n");
+    StringBuilder sb = new StringBuilder(lines[0]).append('\n');
+    for (int r = 0;r < rows;r++) {
+      sb.append(lines[1 + r % (lines.length - 1)]).append('\n');
+    }
+    return sb.toString();
+  }
+}
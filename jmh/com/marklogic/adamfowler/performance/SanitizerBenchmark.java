@@ -0,0 +1,83 @@
+package com.marklogic.adamfowler.performance;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Stripping invalid XML characters from each document of docs/0001: the old
+ * String path, XMLSanitizer over bytes, and SanitizingInputStream as ingest
+ * uses it. One operation is one document.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5,time = 1)
+@Measurement(iterations = 5,time = 1)
+@Fork(1)
+public class SanitizerBenchmark {
+  static final int DOCS = 500;
+
+  byte[][] bytes;
+  String[] xml;
+  byte[] out;
+  byte[] buffer = new byte[8192];
+
+  @Setup
+  public void setUp() throws IOException {
+    bytes = BenchmarkInputs.loadDocs(DOCS);
+    xml = new String[bytes.length];
+    int longest = 0;
+    for (int i = 0;i < bytes.length;i++) {
+      xml[i] = new String(bytes[i],Corpus.UTF8);
+      longest = Math.max(longest,bytes[i].length);
+    }
+    out = new byte[longest + XMLSanitizer.MAX_CARRY];
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(DOCS)
+  public void stripString(Blackhole bh) {
+    for (int i = 0;i < xml.length;i++) {
+      bh.consume(ReplaceXMLChars.stripNonValidXMLCharacters(xml[i]));
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(DOCS)
+  public void sanitizeBytes(Blackhole bh) {
+    for (int i = 0;i < bytes.length;i++) {
+      XMLSanitizer sanitizer = new XMLSanitizer();
+      int n = sanitizer.filter(bytes[i],0,bytes[i].length,out,0);
+      n += sanitizer.finish(out,n);
+      bh.consume(n);
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(DOCS)
+  public void sanitizeStream(Blackhole bh) throws IOException {
+    for (int i = 0;i < bytes.length;i++) {
+      SanitizingInputStream in = new SanitizingInputStream(new ByteArrayInputStream(bytes[i]));
+      int n;
+      long total = 0;
+      while (-1 != (n = in.read(buffer,0,buffer.length))) {
+        total += n;
+      }
+      bh.consume(total);
+    }
+  }
+}
@@ -0,0 +1,143 @@
+package com.marklogic.client.example.batch;
+
+import java.io.ByteArrayInputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.marklogic.adamfowler.performance.BenchmarkInputs;
+import com.marklogic.client.DatabaseClient;
+import com.marklogic.client.DatabaseClientFactory;
+import com.marklogic.client.DatabaseClientFactory.Authentication;
+import com.marklogic.client.io.BytesHandle;
+import com.marklogic.client.io.Format;
+import com.marklogic.client.io.marker.AbstractWriteHandle;
+
+/**
+ * The client side of BatchManager.apply for one batch of docs/0001 writes:
+ * building the request manifest as a string or streaming it as apply() does,
+ * and reading a response manifest of the shape docbatch.xqy returns, with 1 in
+ * 100 writes failed, through a DOM as apply() used to or pulled with StAX as
+ * it does now. Neither touches the network; the client is never used to send
+ * anything.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BatchManagerBenchmark {
+	@Param({"10", "100", "500", "1000"})
+	int batchSize;
+
+	DatabaseClient         client;
+	BatchManager           manager;
+	byte[][]               docs;
+	byte[]                 response;
+	DocumentBuilderFactory factory;
+
+	@Setup
+	public void setUp() throws Exception {
+		client  = DatabaseClientFactory.newClient("localhost", 8000, "admin", "admin", Authentication.DIGEST);
+		manager = new BatchManager(client);
+		docs    = BenchmarkInputs.loadDocs(batchSize);
+
+		StringBuilder responseBuilder = new StringBuilder();
+		responseBuilder.append("<?xml version='1.0' encoding='UTF-8'?>\n");
+		responseBuilder.append("<rapi:batch-responses xmlns:rapi='http://marklogic.com/rest-api'>");
+		for (int i=0; i < batchSize; i++) {
+			boolean succeeded = (i % 100 != 99);
+			responseBuilder.append("<rapi:put-response><rapi:uri>/performance/rest-batch/0/");
+			responseBuilder.append(i);
+			responseBuilder.append(".xml</rapi:uri><rapi:request-succeeded>");
+			responseBuilder.append(succeeded);
+			responseBuilder.append("</rapi:request-succeeded>");
+			if (!succeeded)
+				responseBuilder.append("<rapi:error-mimetype>application/xml</rapi:error-mimetype>");
+			responseBuilder.append("</rapi:put-response>");
+		}
+		responseBuilder.append("</rapi:batch-responses>");
+		response = responseBuilder.toString().getBytes("UTF-8");
+
+		factory = DocumentBuilderFactory.newInstance();
+		factory.setNamespaceAware(true);
+	}
+
+	@TearDown
+	public void tearDown() {
+		client.release();
+	}
+
+	BatchManager.BatchRequest newRequest() {
+		BatchManager.BatchRequest request = manager.newBatchRequest();
+		// docs/0001 has 500 documents, so larger batches reuse them
+		for (int i=0; i < batchSize; i++) {
+			request.withWrite("/performance/rest-batch/0/"+i+".xml",
+					new BytesHandle().withFormat(Format.XML).with(docs[i % docs.length]));
+		}
+		return request;
+	}
+
+	@Benchmark
+	public String buildManifest() {
+		return manager.buildManifest(newRequest(),
+				new ArrayList<AbstractWriteHandle>(), new ArrayList<String>());
+	}
+
+	@Benchmark
+	public long streamManifest() throws Exception {
+		BatchManager.BatchRequest request = newRequest();
+		List<AbstractWriteHandle> handles = new ArrayList<AbstractWriteHandle>(batchSize + 1);
+		manager.collectParts(request, handles, new ArrayList<String>());
+		CountingSink sink = new CountingSink();
+		manager.new ManifestSender(request).write(sink);
+		return sink.count;
+	}
+
+	/**
+	 * Stands in for the request body: counts the bytes and keeps none of them.
+	 */
+	static class CountingSink extends OutputStream {
+		long count = 0;
+
+		public void write(int b) {
+			count++;
+		}
+
+		public void write(byte[] b, int off, int len) {
+			count += len;
+		}
+	}
+
+	@Benchmark
+	public List<BatchManager.OutputItem> readManifest() throws Exception {
+		List<BatchManager.OutputItem> items = new ArrayList<BatchManager.OutputItem>();
+		manager.readManifest(
+				factory.newDocumentBuilder().parse(new ByteArrayInputStream(response)), items);
+		return items;
+	}
+
+	@Benchmark
+	public List<BatchManager.OutputItem> pullManifest() throws Exception {
+		List<BatchManager.OutputItem> items = new ArrayList<BatchManager.OutputItem>();
+		manager.readManifest(new ByteArrayInputStream(response), items);
+		return items;
+	}
+}
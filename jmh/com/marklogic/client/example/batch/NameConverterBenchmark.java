@@ -0,0 +1,53 @@
+package com.marklogic.client.example.batch;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.marklogic.adamfowler.performance.BenchmarkInputs;
+
+/**
+ * NameConverter.mangleToNCName over the listings.csv header names, plus
+ * names that need escaping. One operation is one name.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NameConverterBenchmark {
+	static final String[] ESCAPED = {
+		"Unit Price ($)", "2nd column", "_private", "na\u00efve caf\u00e9", "\u65e5\u672c\u8a9e \u5217", "a.b-c"
+		};
+	static final int NAMES = 16;
+
+	String[] names = new String[NAMES];
+
+	@Setup
+	public void setUp() throws Exception {
+		String[] header = BenchmarkInputs.loadCsv().split("\r?\n")[0].split(",");
+		for (int i=0; i < NAMES; i++) {
+			names[i] = (i < header.length) ? header[i] : ESCAPED[(i - header.length) % ESCAPED.length];
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(NAMES)
+	public void mangleToNCName(Blackhole bh) {
+		for (int i=0; i < names.length; i++) {
+			bh.consume(NameConverter.mangleToNCName(names[i]));
+		}
+	}
+}
@@ -0,0 +1,60 @@
+package com.marklogic.client.example.batch;
+
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.w3c.dom.Document;
+
+import com.marklogic.adamfowler.performance.BenchmarkInputs;
+
+/**
+ * OpenCSVBatcher.write turning listings.csv rows into DOM batches, with a
+ * processor that only consumes each batch. One operation is one row.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OpenCSVBatcherBenchmark {
+	static final int ROWS = 1000;
+
+	@Param({"100"})
+	int batchSize;
+
+	String csv;
+
+	@Setup
+	public void setUp() throws Exception {
+		csv = BenchmarkInputs.loadCsv(ROWS);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(ROWS)
+	public long write(final Blackhole bh) throws Exception {
+		OpenCSVBatcher batcher = new OpenCSVBatcher(new OpenCSVBatcher.BatchProcessor() {
+			@Override
+			public boolean processAndContinue(Document batch) {
+				bh.consume(batch);
+				return true;
+			}
+		});
+		batcher.setHasHeader(true);
+		batcher.setBatchSize(batchSize);
+		return batcher.write(new StringReader(csv), "/listings/", "listing");
+	}
+}
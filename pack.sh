@@ -0,0 +1,4 @@
+#!/bin/sh
+
+. settings.sh
+java -Xms512m -Xmx1024m -cp ./bin:$LIBRARIES com.marklogic.adamfowler.performance.CorpusPacker $DIR ./docs.pack
@@ -1,4 +1,4 @@
 #!/bin/sh
 
-java -XX:MaxPermSize=128m -Xms512m -Xmx1024m -cp ./bin:$LIBRARIES com.marklogic.adamfowler.performance.ReplaceXMLChars ./docs
-
+# sanitizes every document beneath the folder (default ./docs), optionally with a given number of threads
+java -Xms256m -Xmx512m -cp ./bin:$LIBRARIES com.marklogic.adamfowler.performance.ReplaceXMLChars ${1:-./docs} $2
@@ -1,6 +1,8 @@
 #!/bin/sh
 export MLCP=/Users/adamfowler/Documents/marklogic/software/marklogic-contentpump-1.0/bin/mlcp.sh
 export HOST=localhost
+# REST app servers to spread requests over, e.g. node1,node2,node3 or node1:9094,node2:9094
+export HOSTS=$HOST
 export RESTPORT=9094
 export XDBCPORT=9093
 export DB=restingest
@@ -0,0 +1,115 @@
+package com.marklogic.adamfowler.performance;
+
+/**
+ * Limits how many requests are in flight, adjusting the limit by additive
+ * increase, multiplicative decrease (AIMD) as completions report back.
+ * 
+ * Each window of roughly limit completions within the target latency is
+ * timed. While throughput keeps up with the best seen recently the limit grows
+ * by one per window; if it falls well short the limit shrinks by one. A completion over the target
+ * latency, or one that failed, cuts the limit by the backoff factor - at most
+ * once per target latency interval, so one slow window cannot collapse it.
+ */
+public class AimdLimiter {
+  String name;
+  double limit;
+  int min;
+  int max;
+  long targetNanos;
+  double backoff = 0.5;
+  boolean adaptive = true;
+
+  int inFlight = 0;
+  int highest;
+  long windowStart = System.nanoTime();
+  int windowSamples = 0;
+  double bestRate = 0.0;
+  long lastDecrease = 0;
+
+  public AimdLimiter(String name,int initial,int min,int max,long targetNanos) {
+    this.name = name;
+    this.limit = initial;
+    this.min = Math.max(1,min);
+    this.max = max;
+    this.targetNanos = targetNanos;
+    this.highest = initial;
+  }
+
+  /**
+   * Holds the limit at its initial value, making this a plain counting semaphore.
+   */
+  public AimdLimiter withAdaptive(boolean adaptive) {
+    this.adaptive = adaptive;
+    return this;
+  }
+
+  public AimdLimiter withBackoff(double backoff) {
+    this.backoff = backoff;
+    return this;
+  }
+
+  public synchronized void acquire() throws InterruptedException {
+    while (inFlight >= (int) limit) {
+      wait();
+    }
+    inFlight++;
+  }
+
+  public synchronized void release() {
+    inFlight--;
+    notifyAll();
+  }
+
+  public synchronized void awaitIdle() throws InterruptedException {
+    while (inFlight > 0) {
+      wait();
+    }
+  }
+
+  public synchronized void sample(long nanos,boolean success) {
+    if (!adaptive) {
+      return;
+    }
+    long now = System.nanoTime();
+    if (!success || nanos > targetNanos) {
+      if (now - lastDecrease > targetNanos) {
+        lastDecrease = now;
+        change(limit * backoff,success ? String.format("latency %.0f ms",nanos / 1000000.0) : "failed request");
+      }
+      windowStart = now;
+      windowSamples = 0;
+      return;
+    }
+    windowSamples++;
+    if (windowSamples >= (int) limit) {
+      double rate = windowSamples * 1000000000.0 / Math.max(1,now - windowStart);
+      if (rate >= bestRate * 0.97) {
+        change(limit + 1,String.format("%.1f requests/sec",rate));
+      } else if (rate < bestRate * 0.9) {
+        change(limit - 1,String.format("%.1f requests/sec, best %.1f",rate,bestRate));
+      }
+      // let the best rate fade so a server that has since slowed down is not chased forever
+      bestRate = Math.max(rate,bestRate * 0.99);
+      windowStart = now;
+      windowSamples = 0;
+    }
+  }
+
+  void change(double to,String reason) {
+    to = Math.max(min,Math.min(max,to));
+    if ((int) to != (int) limit) {
+      System.out.println(name + ": in-flight limit " + (int) limit + " -> " + (int) to + " (" + reason + ")");
+      notifyAll();
+    }
+    limit = to;
+    highest = Math.max(highest,(int) limit);
+  }
+
+  public synchronized int getLimit() {
+    return (int) limit;
+  }
+
+  public synchronized int getHighest() {
+    return highest;
+  }
+}
@@ -0,0 +1,16 @@
+package com.marklogic.adamfowler.performance;
+
+/**
+ * Told about a BatchWrapper's progress as it happens, so callers need not poll done().
+ */
+public interface BatchListener {
+  /**
+   * Called after each BatchManager.apply, or when apply throws (success false).
+   */
+  public void applied(BatchWrapper wrapper,long nanos,boolean success);
+
+  /**
+   * Called once the wrapper has sent its last batch, or given up.
+   */
+  public void finished(BatchWrapper wrapper);
+}
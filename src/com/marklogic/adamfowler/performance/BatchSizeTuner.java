@@ -0,0 +1,146 @@
+package com.marklogic.adamfowler.performance;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Chooses how many documents BatchWrapper puts in each BatchRequest. It first
+ * probes each candidate size for a few apply() calls, measuring documents and
+ * bytes per second of apply() time, then settles on the fastest. If throughput
+ * at the chosen size later drifts more than 20% below what it measured when
+ * chosen, it probes again around the current size. No size probed is larger
+ * than maxSize, the documents in one loop, as a batch never gets bigger.
+ * 
+ * Shared by every BatchWrapper in a run, so all methods are synchronized.
+ */
+public class BatchSizeTuner {
+  int[] candidates;
+  int samplesPerProbe;
+  int maxSize;
+
+  int[] probing;
+  int probe = 0;
+  double[] probeDocs;
+  double[] probeBytes;
+  long[] probeNanos;
+  int[] probeSamples;
+
+  int chosen = 0;
+  double chosenRate = 0.0;
+  double currentRate = 0.0;
+  List<String> trace = new ArrayList<String>();
+
+  public BatchSizeTuner(int[] candidates,int samplesPerProbe) {
+    this(candidates,samplesPerProbe,Integer.MAX_VALUE);
+  }
+
+  public BatchSizeTuner(int[] candidates,int samplesPerProbe,int maxSize) {
+    this.candidates = candidates;
+    this.samplesPerProbe = samplesPerProbe;
+    this.maxSize = Math.max(1,maxSize);
+    startProbing(candidates);
+  }
+
+  public static BatchSizeTuner parse(String sizes,int samplesPerProbe) {
+    return parse(sizes,samplesPerProbe,Integer.MAX_VALUE);
+  }
+
+  public static BatchSizeTuner parse(String sizes,int samplesPerProbe,int maxSize) {
+    String[] parts = sizes.split(",");
+    int[] candidates = new int[parts.length];
+    for (int i = 0;i < parts.length;i++) {
+      candidates[i] = Integer.parseInt(parts[i].trim());
+    }
+    return new BatchSizeTuner(candidates,samplesPerProbe,maxSize);
+  }
+
+  /**
+   * The number of documents to put in the next BatchRequest.
+   */
+  public synchronized int nextSplit() {
+    return (null != probing) ? probing[probe] : chosen;
+  }
+
+  /**
+   * Reports one apply() of the given number of documents and bytes.
+   */
+  public synchronized void applied(int docs,long bytes,long nanos) {
+    if (null != probing) {
+      // a request started before the probe moved on still counts for its own size
+      for (int p = 0;p < probing.length;p++) {
+        if (probing[p] == docs) {
+          probeDocs[p] += docs;
+          probeBytes[p] += bytes;
+          probeNanos[p] += nanos;
+          probeSamples[p]++;
+        }
+      }
+      if (probeSamples[probe] >= samplesPerProbe) {
+        probe++;
+        if (probe == probing.length) {
+          choose();
+        }
+      }
+      return;
+    }
+    if (docs != chosen) {
+      return;
+    }
+    double rate = docs * 1000000000.0 / Math.max(1,nanos);
+    currentRate = (0.0 == currentRate) ? rate : 0.8 * currentRate + 0.2 * rate;
+    if (currentRate < chosenRate * 0.8) {
+      trace.add(String.format("throughput at %d drifted to %.0f docs/sec from %.0f, probing again",chosen,currentRate,chosenRate));
+      startProbing(new int[] {Math.max(1,chosen / 2),chosen,chosen * 2});
+    }
+  }
+
+  void startProbing(int[] sizes) {
+    // a larger size would never fill, so its probe would never finish
+    int[] clamped = new int[sizes.length];
+    int count = 0;
+    for (int s = 0;s < sizes.length;s++) {
+      int size = Math.max(1,Math.min(maxSize,sizes[s]));
+      boolean seen = false;
+      for (int c = 0;c < count;c++) {
+        seen |= (clamped[c] == size);
+      }
+      if (!seen) {
+        clamped[count++] = size;
+      }
+    }
+    sizes = new int[count];
+    System.arraycopy(clamped,0,sizes,0,count);
+    probing = sizes;
+    probe = 0;
+    probeDocs = new double[sizes.length];
+    probeBytes = new double[sizes.length];
+    probeNanos = new long[sizes.length];
+    probeSamples = new int[sizes.length];
+  }
+
+  void choose() {
+    double best = -1.0;
+    for (int p = 0;p < probing.length;p++) {
+      double seconds = Math.max(1,probeNanos[p]) / 1000000000.0;
+      double docsRate = probeDocs[p] / seconds;
+      trace.add(String.format("probe %d: %.0f docs/sec, %.0f KB/sec over %d applies",probing[p],docsRate,probeBytes[p] / seconds / 1024,probeSamples[p]));
+      if (docsRate > best) {
+        best = docsRate;
+        chosen = probing[p];
+      }
+    }
+    chosenRate = best;
+    currentRate = 0.0;
+    trace.add(String.format("chose %d (%.0f docs/sec)",chosen,chosenRate));
+    System.out.println("Batch size tuner: " + trace.get(trace.size() - 1));
+    probing = null;
+  }
+
+  public synchronized int getChosen() {
+    return (null != probing) ? probing[probe] : chosen;
+  }
+
+  public synchronized List<String> getTrace() {
+    return new ArrayList<String>(trace);
+  }
+}
@@ -1,55 +1,167 @@
 package com.marklogic.adamfowler.performance;
 
 import com.marklogic.client.example.batch.BatchManager;
-import com.marklogic.client.io.Format;
-import com.marklogic.client.io.StringHandle;
+import com.marklogic.client.example.batch.BatchRetryPolicy;
 
 public class BatchWrapper extends Thread {
-  String[] xml = null;
+  RESTContent content = null;
   BatchManager manager = null;
   String uriBase = null;
   int loop = 0;
   int split = 100;
-  boolean done = false;
+  volatile boolean done = false;
+  LatencyRecorder latency = null;
+  BatchListener listener = null;
+  BatchSizeTuner tuner = null;
+  ClientPool clients = null;
+  Progress progress = null;
+  BatchRetryPolicy retries = null;
   
-  public BatchWrapper(BatchManager manager,String[] xml,String uriBase,int loop) {
-    this.xml = xml;
+  public BatchWrapper(BatchManager manager,RESTContent content,String uriBase,int loop) {
+    this(manager,content,uriBase,loop,null);
+  }
+  
+  public BatchWrapper(BatchManager manager,RESTContent content,String uriBase,int loop,LatencyRecorder latency) {
+    this.latency = latency;
+    this.content = content;
     this.manager = manager;
     this.loop = loop;
     this.uriBase = uriBase;
     this.done = false;
   }
   
+  /**
+   * Applies each BatchRequest through whichever client the pool offers at the time.
+   */
+  public BatchWrapper(ClientPool clients,RESTContent content,String uriBase,int loop,LatencyRecorder latency) {
+    this(clients.getMembers()[0].batches,content,uriBase,loop,latency); // requests are built through the first client
+    this.clients = clients;
+  }
+  
+  public void setListener(BatchListener listener) {
+    this.listener = listener;
+  }
+  
+  public void setProgress(Progress progress) {
+    this.progress = progress;
+  }
+  
+  /**
+   * Hands the documents that fail to the policy to send again, and carries on
+   * with the loop when a whole batch fails, instead of giving it up.
+   */
+  public void setRetryPolicy(BatchRetryPolicy retries) {
+    this.retries = retries;
+  }
+
+  public void setSplit(int split) {
+    this.split = split;
+  }
+  
+  /**
+   * Lets the tuner choose the size of each BatchRequest instead of using a fixed split.
+   */
+  public void setTuner(BatchSizeTuner tuner) {
+    this.tuner = tuner;
+  }
+  
   public void run() {
+    long start = 0;
     try {
       BatchManager.BatchRequest request = null;
-      //System.out.println("loop=" + loop + " xml length: " + xml.length);
-      for (int f = 0;f < xml.length;f++) {
+      int size = 0;
+      long bytes = 0;
+      //System.out.println("loop=" + loop + " xml length: " + content.size());
+      for (int f = 0;f < content.size();f++) {
         //System.out.println("loop=" + loop + " f=" + f);
-        if (0 == (f % split) || 0 == f ) {
+        if (null == request) {
           //System.out.println("Creating split request at f=" + f);
           request = manager.newBatchRequest();
+          if (null != tuner) {
+            split = tuner.nextSplit();
+          }
+          size = 0;
+          bytes = 0;
           //System.out.println("Got request object f=" + f);
         }
         //System.out.println("loop=" + loop + " Adding file " + f);
-        request.withWrite(uriBase + loop + "/" + f + ".xml",new StringHandle().withFormat(Format.XML).with(xml[f]));
+        request.withWrite(uriBase + loop + "/" + f + ".xml",content.newHandle(f));
+        size++;
+        bytes += content.length(f);
         //System.out.println("Added file f=" + f);
-        if (((split - 1) == (f % split)) || (f == (xml.length - 1))) {
+        if ((size == split) || (f == (content.size() - 1))) {
           //System.out.println("Commiting split at f=" + f);
           // add content in a single hit
-          BatchManager.BatchResponse response = manager.apply(request);
-          if (response.getSuccess()) {
-            //System.out.println("  SUCCESS " + loop + " f=" + f);
-          } else {
-            //System.out.println("  FAILURE " + loop + " f=" + f);
+          ClientPool.Member member = (null == clients) ? null : clients.acquire();
+          start = System.nanoTime();
+          BatchManager applier = (null == member) ? manager : member.batches;
+          BatchManager.BatchResponse response;
+          try {
+            response = applier.apply(request);
+          } catch (RuntimeException re) {
+            if (null != member) {
+              clients.release(member,0,false);
+            }
+            if (null != progress) {
+              progress.failed(size);
+            }
+            if (null == retries) {
+              throw re;
+            }
+            re.printStackTrace(System.out);
+            applier.retryFailed(request,re,retries);
+            if (null != listener) {
+              listener.applied(this,System.nanoTime() - start,false);
+            }
+            start = 0;
+            request = null;
+            continue;
+          }
+          try {
+            long nanos = System.nanoTime() - start;
+            int failed = response.getFailedUris().size();
+            if (null != member) {
+              clients.release(member,size - failed,response.getSuccess());
+            }
+            if (null != retries) {
+              applier.retryFailed(request,response,retries);
+            }
+            start = 0;
+            request = null;
+            if (null != latency) {
+              latency.record(nanos);
+            }
+            if (null != tuner) {
+              tuner.applied(size,bytes,nanos);
+            }
+            if (null != progress) {
+              RESTBatch.firstAttempt(progress,size,bytes,failed);
+            }
+            if (null != listener) {
+              listener.applied(this,nanos,response.getSuccess());
+            }
+            if (response.getSuccess()) {
+              //System.out.println("  SUCCESS " + loop + " f=" + f);
+            } else {
+              //System.out.println("  FAILURE " + loop + " f=" + f);
+            }
+          } finally {
+            // the retries have taken what they need from it, so free the connection now
+            response.close();
           }
         }
         //System.out.println("loop=" + loop + " f is now: " + f);
       }
     } catch (Exception e) {
+      if (null != listener && 0 != start) {
+        listener.applied(this,System.nanoTime() - start,false);
+      }
       e.printStackTrace(System.out);
     }
     this.done = true;
+    if (null != listener) {
+      listener.finished(this);
+    }
   }
   
   public boolean done() {
@@ -0,0 +1,66 @@
+package com.marklogic.adamfowler.performance;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Command line settings shared by every benchmark. Arguments of the form
+ * --name=value are named options, anything else is positional and kept in order.
+ */
+public class BenchmarkOptions {
+  Map<String,String> values = new LinkedHashMap<String,String>();
+  List<String> positional = new ArrayList<String>();
+
+  public static BenchmarkOptions parse(String[] args) {
+    BenchmarkOptions options = new BenchmarkOptions();
+    for (int i = 0;i < args.length;i++) {
+      if (args[i].startsWith("--") && args[i].indexOf('=') > 2) {
+        int eq = args[i].indexOf('=');
+        options.set(args[i].substring(2,eq),args[i].substring(eq + 1));
+      } else {
+        options.positional.add(args[i]);
+      }
+    }
+    return options;
+  }
+
+  public BenchmarkOptions set(String name,String value) {
+    values.put(name,value);
+    return this;
+  }
+
+  public boolean has(String name) {
+    return values.containsKey(name);
+  }
+
+  public String get(String name,String defaultValue) {
+    String value = values.get(name);
+    return (null == value) ? defaultValue : value;
+  }
+
+  public String get(String name) {
+    String value = values.get(name);
+    if (null == value) {
+      throw new IllegalArgumentException("Missing required option --" + name + "=");
+    }
+    return value;
+  }
+
+  public int getInt(String name,int defaultValue) {
+    String value = values.get(name);
+    return (null == value) ? defaultValue : Integer.parseInt(value);
+  }
+
+  public String getPositional(int index) {
+    if (index >= positional.size()) {
+      throw new IllegalArgumentException("Missing positional argument " + index);
+    }
+    return positional.get(index);
+  }
+
+  public Map<String,String> getValues() {
+    return values;
+  }
+}
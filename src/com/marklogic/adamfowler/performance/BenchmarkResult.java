@@ -0,0 +1,81 @@
+package com.marklogic.adamfowler.performance;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * What one strategy achieved during its measured window.
+ */
+public class BenchmarkResult {
+  String strategy;
+  long docs;
+  long millis;
+  LatencyRecorder latency;
+  Map<String,String> details = new LinkedHashMap<String,String>();
+  List<ServerSample> serverSamples = new ArrayList<ServerSample>();
+  List<ProgressReporter.Point> timeline = new ArrayList<ProgressReporter.Point>();
+
+  public BenchmarkResult(String strategy,long docs,long millis,LatencyRecorder latency) {
+    this.strategy = strategy;
+    this.docs = docs;
+    this.millis = millis;
+    this.latency = latency;
+  }
+
+  public String getStrategy() {
+    return strategy;
+  }
+
+  public long getDocs() {
+    return docs;
+  }
+
+  public long getMillis() {
+    return millis;
+  }
+
+  public LatencyRecorder getLatency() {
+    return latency;
+  }
+
+  public BenchmarkResult setDetail(String name,Object value) {
+    details.put(name,String.valueOf(value));
+    return this;
+  }
+
+  public Map<String,String> getDetails() {
+    return details;
+  }
+
+  public List<ServerSample> getServerSamples() {
+    return serverSamples;
+  }
+
+  public void setServerSamples(List<ServerSample> serverSamples) {
+    this.serverSamples = serverSamples;
+  }
+
+  public List<ProgressReporter.Point> getTimeline() {
+    return timeline;
+  }
+
+  public void setTimeline(List<ProgressReporter.Point> timeline) {
+    this.timeline = timeline;
+  }
+
+  public long getDocsPerSecond() {
+    return docs * 1000 / Math.max(1,millis);
+  }
+
+  public static String header() {
+    return "strategy\tdocs\tms\tdocs/sec\trequests\tmean ms\tp50 ms\tp90 ms\tp99 ms\tp99.9 ms\tmax ms";
+  }
+
+  public String toString() {
+    return strategy + "\t" + docs + "\t" + millis + "\t" + getDocsPerSecond() + "\t" + latency.getCount()
+        + String.format("\t%.2f\t%.2f\t%.2f\t%.2f\t%.2f\t%.2f",latency.getMeanMillis(),latency.getPercentileMillis(50.0),
+            latency.getPercentileMillis(90.0),latency.getPercentileMillis(99.0),latency.getPercentileMillis(99.9),latency.getMaxMillis());
+  }
+}
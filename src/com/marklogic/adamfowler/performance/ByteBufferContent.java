@@ -0,0 +1,60 @@
+package com.marklogic.adamfowler.performance;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+import com.marklogic.xcc.Content;
+import com.marklogic.xcc.ContentCreateOptions;
+
+/**
+ * XCC Content read straight from a ByteBuffer, such as a PackedCorpus slice,
+ * so inserting it never copies the document onto the heap. Rewindable, so
+ * XCC can retry it. If sanitizing, each stream is filtered through a
+ * SanitizingInputStream and the size is reported as unknown.
+ */
+public class ByteBufferContent implements Content {
+  String uri;
+  ByteBuffer buffer;
+  ContentCreateOptions options;
+  boolean sanitize;
+
+  public ByteBufferContent(String uri,ByteBuffer buffer,ContentCreateOptions options) {
+    this(uri,buffer,options,false);
+  }
+
+  public ByteBufferContent(String uri,ByteBuffer buffer,ContentCreateOptions options,boolean sanitize) {
+    this.uri = uri;
+    this.buffer = buffer;
+    this.options = options;
+    this.sanitize = sanitize;
+  }
+
+  public String getUri() {
+    return uri;
+  }
+
+  public InputStream openDataStream() {
+    InputStream stream = new ByteBufferInputStream(buffer);
+    return sanitize ? new SanitizingInputStream(stream) : stream;
+  }
+
+  public ContentCreateOptions getCreateOptions() {
+    return options;
+  }
+
+  public boolean isRewindable() {
+    return true;
+  }
+
+  public void rewind() {
+    // every openDataStream() starts from the beginning
+  }
+
+  public long size() {
+    // sanitizing only knows the length once the stream has been read
+    return sanitize ? -1 : buffer.remaining();
+  }
+
+  public void close() {
+  }
+}
@@ -0,0 +1,41 @@
+package com.marklogic.adamfowler.performance;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Streams the remaining bytes of a ByteBuffer without copying them anywhere first.
+ */
+public class ByteBufferInputStream extends InputStream {
+  ByteBuffer buffer;
+
+  public ByteBufferInputStream(ByteBuffer buffer) {
+    this.buffer = buffer.duplicate();
+  }
+
+  public int read() {
+    return buffer.hasRemaining() ? (buffer.get() & 0xFF) : -1;
+  }
+
+  public int read(byte[] b,int off,int len) {
+    if (0 == len) {
+      return 0;
+    }
+    if (!buffer.hasRemaining()) {
+      return -1;
+    }
+    len = Math.min(len,buffer.remaining());
+    buffer.get(b,off,len);
+    return len;
+  }
+
+  public long skip(long n) {
+    int skipped = (int) Math.max(0,Math.min(n,buffer.remaining()));
+    buffer.position(buffer.position() + skipped);
+    return skipped;
+  }
+
+  public int available() {
+    return buffer.remaining();
+  }
+}
@@ -0,0 +1,38 @@
+package com.marklogic.adamfowler.performance;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+/**
+ * A stand-in for the server that returns canned status XML, so the sampler
+ * and its report can be exercised without MarkLogic. Given several files it
+ * returns each in turn and then starts again, so a changing server can be
+ * played back.
+ */
+public class CannedStatusSource implements ServerStatusSource {
+  String[] statuses;
+  int next = 0;
+
+  public CannedStatusSource(String[] statuses) {
+    this.statuses = statuses;
+  }
+
+  public static CannedStatusSource load(String fileList) throws IOException {
+    String[] names = fileList.split(",");
+    String[] statuses = new String[names.length];
+    for (int i = 0;i < names.length;i++) {
+      statuses[i] = new String(Files.readAllBytes(new File(names[i]).toPath()),Corpus.UTF8);
+    }
+    return new CannedStatusSource(statuses);
+  }
+
+  public synchronized String fetchStatus() {
+    String status = statuses[next];
+    next = (next + 1) % statuses.length;
+    return status;
+  }
+
+  public void close() {
+  }
+}
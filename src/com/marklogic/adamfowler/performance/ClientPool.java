@@ -0,0 +1,199 @@
+package com.marklogic.adamfowler.performance;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.marklogic.client.DatabaseClient;
+import com.marklogic.client.DatabaseClientFactory;
+import com.marklogic.client.DatabaseClientFactory.Authentication;
+import com.marklogic.client.document.XMLDocumentManager;
+import com.marklogic.client.example.batch.BatchManager;
+
+/**
+ * DatabaseClients to every host in the cluster, so the REST strategies spread
+ * their requests over all the app servers instead of one. Each host gets
+ * --connections-per-host clients, each with its own connection pool, and
+ * every request takes one via acquire() and hands it back via release().
+ *
+ * --hosts=h1,h2:8011        hosts to write to, each with an optional port
+ *                           (default --host, at --restport)
+ * --connections-per-host=N  clients per host (default 1)
+ * --select=round-robin      take each client in turn (default)
+ * --select=least-outstanding  take the client with fewest requests in flight
+ * --select=random           take any client
+ */
+public class ClientPool {
+  Member[] members;
+  String selection;
+  AtomicInteger next = new AtomicInteger();
+
+  public ClientPool(Member[] members,String selection) {
+    if (!"round-robin".equals(selection) && !"least-outstanding".equals(selection) && !"random".equals(selection)) {
+      throw new IllegalArgumentException("Unknown client selection: " + selection);
+    }
+    this.members = members;
+    this.selection = selection;
+  }
+
+  public static ClientPool from(BenchmarkOptions options) {
+    String[] hosts = options.get("hosts",options.get("host")).split(",");
+    int connections = options.getInt("connections-per-host",1);
+    Member[] members = new Member[hosts.length * connections];
+    for (int h = 0;h < hosts.length;h++) {
+      String host = hosts[h].trim();
+      int port;
+      int colon = host.lastIndexOf(':');
+      if (colon > 0) {
+        port = Integer.parseInt(host.substring(colon + 1));
+        host = host.substring(0,colon);
+      } else {
+        port = Integer.parseInt(options.get("restport"));
+      }
+      for (int c = 0;c < connections;c++) {
+        // interleaved, so round-robin moves to the next host on every request
+        members[c * hosts.length + h] = new Member(host + ":" + port,DatabaseClientFactory.newClient(host,port,
+            options.get("user","admin"),options.get("password","admin"),Authentication.DIGEST));
+      }
+    }
+    ClientPool pool = new ClientPool(members,options.get("select","round-robin"));
+    System.out.println("Client pool: " + connections + " client(s) to each of " + hosts.length + " host(s), " + pool.selection + " selection");
+    return pool;
+  }
+
+  /**
+   * Chooses a client for one request and counts it as outstanding until release().
+   */
+  public Member acquire() {
+    Member member;
+    if (1 == members.length) {
+      member = members[0];
+    } else if ("random".equals(selection)) {
+      member = members[ThreadLocalRandom.current().nextInt(members.length)];
+    } else if ("least-outstanding".equals(selection)) {
+      // start the scan somewhere different each time, so ties are shared out
+      int offset = (next.getAndIncrement() & Integer.MAX_VALUE) % members.length;
+      member = members[offset];
+      for (int m = 1;m < members.length && member.outstanding.get() > 0;m++) {
+        Member candidate = members[(offset + m) % members.length];
+        if (candidate.outstanding.get() < member.outstanding.get()) {
+          member = candidate;
+        }
+      }
+    } else {
+      member = members[(next.getAndIncrement() & Integer.MAX_VALUE) % members.length];
+    }
+    member.outstanding.incrementAndGet();
+    return member;
+  }
+
+  /**
+   * Ends a request on member, which wrote docs documents; a batch can write
+   * some of its documents and still not succeed.
+   */
+  public void release(Member member,long docs,boolean success) {
+    member.outstanding.decrementAndGet();
+    record(member,docs,success);
+  }
+
+  /**
+   * Counts a request that was sent on member without acquire(), as a BatchWriter's are.
+   */
+  public void record(Member member,long docs,boolean success) {
+    member.requests.incrementAndGet();
+    member.docs.addAndGet(docs);
+    if (!success) {
+      member.failures.incrementAndGet();
+    }
+  }
+
+  /**
+   * Zeroes the counts, so they only cover the measured window.
+   */
+  public void reset() {
+    for (int m = 0;m < members.length;m++) {
+      members[m].docs.set(0);
+      members[m].requests.set(0);
+      members[m].failures.set(0);
+    }
+  }
+
+  public Member[] getMembers() {
+    return members;
+  }
+
+  public String getSelection() {
+    return selection;
+  }
+
+  /**
+   * Documents, requests and failures per host, and each host's docs/sec over the result's window.
+   */
+  public void addDetails(BenchmarkResult result) {
+    Map<String,long[]> hosts = new LinkedHashMap<String,long[]>();
+    for (int m = 0;m < members.length;m++) {
+      long[] totals = hosts.get(members[m].host);
+      if (null == totals) {
+        hosts.put(members[m].host,totals = new long[3]);
+      }
+      totals[0] += members[m].docs.get();
+      totals[1] += members[m].requests.get();
+      totals[2] += members[m].failures.get();
+    }
+    result.setDetail("hosts",hosts.size());
+    result.setDetail("connections",members.length);
+    result.setDetail("select",selection);
+    for (Map.Entry<String,long[]> host: hosts.entrySet()) {
+      long[] totals = host.getValue();
+      result.setDetail("host-" + host.getKey() + "-docs",totals[0]);
+      result.setDetail("host-" + host.getKey() + "-docs-per-sec",(result.getMillis() <= 0) ? 0 : totals[0] * 1000 / result.getMillis());
+      result.setDetail("host-" + host.getKey() + "-requests",totals[1]);
+      result.setDetail("host-" + host.getKey() + "-failures",totals[2]);
+    }
+  }
+
+  public void release() {
+    for (int m = 0;m < members.length;m++) {
+      members[m].client.release();
+    }
+  }
+
+  /**
+   * One client in the pool, with a manager for each kind of request the strategies send.
+   */
+  public static class Member {
+    String host;
+    DatabaseClient client;
+    XMLDocumentManager documents;
+    BatchManager batches;
+    AtomicInteger outstanding = new AtomicInteger();
+    AtomicLong docs = new AtomicLong();
+    AtomicLong requests = new AtomicLong();
+    AtomicLong failures = new AtomicLong();
+
+    public Member(String host,DatabaseClient client) {
+      this.host = host;
+      this.client = client;
+      this.documents = client.newXMLDocumentManager();
+      this.batches = new BatchManager(client);
+    }
+
+    public String getHost() {
+      return host;
+    }
+
+    public XMLDocumentManager getDocuments() {
+      return documents;
+    }
+
+    public BatchManager getBatches() {
+      return batches;
+    }
+
+    public int getOutstanding() {
+      return outstanding.get();
+    }
+  }
+}
@@ -0,0 +1,182 @@
+package com.marklogic.adamfowler.performance;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * The documents a benchmark writes, loaded once and shared by every strategy
+ * in the run so they all send identical content. The source is a folder of
+ * files, a file written by CorpusPacker, which is memory-mapped rather than
+ * read, or a PrescriptionGenerator, which makes each document when it is
+ * asked for, so a generated corpus of any size takes no memory to hold.
+ */
+public class Corpus {
+  static final Charset UTF8 = Charset.forName("UTF-8");
+
+  File source;
+  File[] files = null;
+  PackedCorpus packed = null;
+  String[] xml = null;
+  volatile byte[][] bytes = null;
+  PrescriptionGenerator generator = null;
+  int generatedCount = 0;
+  // the document each thread generated last, as its length and content are asked for in turn
+  ThreadLocal<Object[]> lastGenerated = new ThreadLocal<Object[]>();
+
+  public static Corpus load(File source) throws IOException {
+    Corpus corpus = new Corpus();
+    corpus.source = source;
+    if (PackedCorpus.isPacked(source)) {
+      corpus.packed = PackedCorpus.open(source);
+      System.out.println("Mapped " + corpus.packed.size() + " packed documents");
+      return corpus;
+    }
+    corpus.files = source.listFiles(new FolderFilter());
+    if (null == corpus.files) {
+      throw new IOException("Not a readable folder or packed corpus: " + source);
+    }
+    System.out.println("Got " + corpus.files.length + " files");
+    return corpus;
+  }
+
+  /**
+   * A corpus of count generated documents, for running without a disk round
+   * trip. Document i depends only on the generator's seed and i, so it is
+   * made afresh whenever it is asked for rather than held. The source is the
+   * sample the generator learnt from.
+   */
+  public static Corpus generate(PrescriptionGenerator generator,File sample,int count) {
+    Corpus corpus = new Corpus();
+    corpus.source = sample;
+    corpus.generator = generator;
+    corpus.generatedCount = count;
+    System.out.println("Generating " + count + " documents on demand");
+    return corpus;
+  }
+
+  byte[] generated(int i) {
+    Object[] last = lastGenerated.get();
+    if (null == last || (Integer) last[0] != i) {
+      last = new Object[] {i,generator.generate(i)};
+      lastGenerated.set(last);
+    }
+    return (byte[]) last[1];
+  }
+
+  /**
+   * The folder or packed file the corpus came from.
+   */
+  public File getSource() {
+    return source;
+  }
+
+  public int size() {
+    if (null != packed) {
+      return packed.size();
+    }
+    if (null != generator) {
+      return generatedCount;
+    }
+    return (null != files) ? files.length : bytes.length;
+  }
+
+  /**
+   * The size of document i in bytes.
+   */
+  public int length(int i) throws IOException {
+    if (null != packed) {
+      return packed.length(i);
+    }
+    if (null != generator) {
+      return generated(i).length;
+    }
+    byte[][] loaded = bytes;
+    return ((null != loaded) ? loaded : getBytes())[i].length;
+  }
+
+  /**
+   * Whether getBuffer() serves a document without the whole corpus being
+   * copied onto the heap first, so strategies should send from it directly.
+   */
+  public boolean isStreamable() {
+    return null != packed || null != generator;
+  }
+
+  /**
+   * A read-only view of document i. For a packed corpus this is a slice of
+   * the mapping and nothing is copied.
+   */
+  public ByteBuffer getBuffer(int i) throws IOException {
+    if (null != packed) {
+      return packed.get(i);
+    }
+    if (null != generator) {
+      return ByteBuffer.wrap(generated(i)).asReadOnlyBuffer();
+    }
+    byte[][] loaded = bytes;
+    return ByteBuffer.wrap((null != loaded) ? loaded[i] : getBytes()[i]).asReadOnlyBuffer();
+  }
+
+  /**
+   * Reads a folder corpus into memory now, so the first measured loop does not
+   * pay for it. A packed corpus is already mapped, and a generated one is
+   * made as it is sent, so both are left alone.
+   */
+  public void preload() throws IOException {
+    if (null == packed && null == generator) {
+      getBytes();
+    }
+  }
+
+  /**
+   * The raw bytes of every document, read once on first use and then held in
+   * memory between adds. This holds a packed or generated corpus on the heap
+   * too, so strategies use getBuffer() for those instead.
+   */
+  public synchronized byte[][] getBytes() throws IOException {
+    if (null == bytes) {
+      byte[][] loaded = new byte[size()][];
+      if (null != generator) {
+        for (int i = 0;i < loaded.length;i++) {
+          loaded[i] = generator.generate(i);
+        }
+      } else if (null != packed) {
+        for (int i = 0;i < loaded.length;i++) {
+          loaded[i] = new byte[packed.length(i)];
+          packed.get(i).get(loaded[i]);
+        }
+      } else {
+        DataInputStream in;
+        for (int i = 0;i < files.length;i++) {
+          loaded[i] = new byte[(int) files[i].length()];
+          in = new DataInputStream(new FileInputStream(files[i]));
+          try {
+            in.readFully(loaded[i]);
+          } finally {
+            in.close();
+          }
+        }
+      }
+      bytes = loaded;
+    }
+    return bytes;
+  }
+
+  /**
+   * The content of every document as a string, decoded once on first use and then held in memory between adds.
+   */
+  public synchronized String[] getXml() throws IOException {
+    if (null == xml) {
+      String[] loaded = new String[size()];
+      for (int i = 0;i < loaded.length;i++) {
+        loaded[i] = UTF8.decode(getBuffer(i)).toString();
+      }
+      xml = loaded;
+    }
+    return xml;
+  }
+}
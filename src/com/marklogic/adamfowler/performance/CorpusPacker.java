@@ -0,0 +1,105 @@
+package com.marklogic.adamfowler.performance;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Packs every document beneath a folder into one file that PackedCorpus can
+ * memory-map, so a benchmark opens one file instead of one per document.
+ * 
+ * Layout, all big-endian:
+ *   int  magic ("MLPC")
+ *   int  version (1)
+ *   int  document count
+ *   int  reserved (0)
+ *   then per document: long offset from the start of the file, int length
+ *   then the document bodies, back to back
+ */
+public class CorpusPacker {
+  static final int MAGIC = 0x4D4C5043;
+  static final int VERSION = 1;
+  static final int HEADER_SIZE = 16;
+  static final int INDEX_ENTRY_SIZE = 12;
+
+  /**
+   * 0 - folderPath to pack, searched recursively
+   * 1 - packed file to write
+   * 
+   * @param args
+   */
+  public static void main(String[] args) {
+    try {
+      List<File> files = new ArrayList<File>();
+      collect(new File(args[0]),files);
+      long bytes = pack(files,new File(args[1]));
+      System.out.println("Packed " + files.size() + " files (" + bytes + " bytes) into " + args[1]);
+    } catch (Exception e) {
+      e.printStackTrace(System.out);
+      System.exit(-1);
+    }
+  }
+
+  /**
+   * Adds every document file beneath dir, in name order so packing is repeatable.
+   */
+  public static void collect(File dir,List<File> files) {
+    File[] children = dir.listFiles();
+    if (null == children) {
+      return;
+    }
+    Arrays.sort(children);
+    FolderFilter filter = new FolderFilter();
+    for (int i = 0;i < children.length;i++) {
+      if (children[i].isDirectory()) {
+        collect(children[i],files);
+      } else if (filter.accept(children[i])) {
+        files.add(children[i]);
+      }
+    }
+  }
+
+  /**
+   * Writes the files into a packed corpus, returning the size of the result.
+   */
+  public static long pack(List<File> files,File packed) throws java.io.IOException {
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(packed),65536));
+    try {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeInt(files.size());
+      out.writeInt(0);
+      long offset = HEADER_SIZE + (long) files.size() * INDEX_ENTRY_SIZE;
+      for (int i = 0;i < files.size();i++) {
+        long length = files.get(i).length();
+        if (length > Integer.MAX_VALUE) {
+          throw new java.io.IOException("Too large to pack: " + files.get(i));
+        }
+        out.writeLong(offset);
+        out.writeInt((int) length);
+        offset += length;
+      }
+      byte[] buffer = new byte[65536];
+      int len;
+      for (int i = 0;i < files.size();i++) {
+        FileInputStream in = new FileInputStream(files.get(i));
+        try {
+          while (-1 != (len = in.read(buffer))) {
+            out.write(buffer,0,len);
+          }
+        } finally {
+          in.close();
+        }
+      }
+      out.flush();
+      return offset;
+    } finally {
+      out.close();
+    }
+  }
+}
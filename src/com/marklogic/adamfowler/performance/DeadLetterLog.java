@@ -0,0 +1,37 @@
+package com.marklogic.adamfowler.performance;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+
+import com.marklogic.client.example.batch.BatchRetryPolicy;
+
+/**
+ * Appends every document a BatchRetryPolicy gives up on to a file, one line
+ * each of URI, attempts, reason and the last exception, tab separated, so
+ * they can be found and loaded again after the run.
+ */
+public class DeadLetterLog implements BatchRetryPolicy.DeadLetterSink {
+  File file;
+  PrintWriter out;
+  long count = 0;
+
+  public DeadLetterLog(File file) throws IOException {
+    this.file = file;
+    out = new PrintWriter(new OutputStreamWriter(new FileOutputStream(file,true),Corpus.UTF8));
+  }
+
+  public synchronized void deadLetter(String uri,int attempts,String reason,Throwable failure) {
+    out.println(uri + "\t" + attempts + "\t" + reason + "\t" + ((null == failure) ? "" : failure.toString().replace('\n',' ').replace('\t',' ')));
+    count++;
+  }
+
+  public synchronized void close() {
+    out.close();
+    if (count > 0) {
+      System.out.println("Wrote " + count + " dead letters to " + file);
+    }
+  }
+}
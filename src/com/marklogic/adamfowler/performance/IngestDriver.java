@@ -0,0 +1,199 @@
+package com.marklogic.adamfowler.performance;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runs one or more ingest strategies against the same corpus, one after
+ * another, and reports them all in one format so they can be compared within
+ * a single run.
+ */
+public class IngestDriver {
+  /**
+   * --strategies=xcc,rest-single,rest-open,rest-batch,mlcp  which strategies to run, in order
+   * --host=H --restport=P --xdbcport=P             server to write to
+   * --hosts=h1,h2:P                                REST hosts to spread requests over, see ClientPool
+   * --user=U --password=P                          credentials (default admin/admin)
+   * --corpus=folder                                folder of documents to write, or a CorpusPacker file
+   * --generate=N                                   write N generated documents shaped like the
+   *                                                --corpus sample instead of the sample itself
+   * --seed=N --practices=N --drugs=N               generator seed (default 1) and cardinalities
+   *                                                (default 8000 practices, 20000 drugs)
+   * --loops=N                                      measured passes over the corpus
+   * --warmup=N                                     unmeasured passes first (default 0)
+   * --pause=S                                      seconds to let the server settle between strategies (default 0)
+   * --results=file.jsonl                           append each strategy's result as a JSON line, see ResultLog
+   * --label=text                                   note to record with the results, e.g. the server version
+   * --settings=file                                settings.sh to record with the results (default ./settings.sh)
+   * --server-status=xcc                            sample host and forest status over XCC during each
+   *                                                measured window (see XCCBatch for the connection options)
+   * --server-status=a.xml,b.xml                    or play back canned status files instead, see CannedStatusSource
+   * --server-database=name                         database whose forests to sample (default the XDBC server's)
+   * --sample-interval=MS                           time between server samples (default 1000)
+   * --progress=N                                   print progress every N progress readings (default 10, 0 for none)
+   * --progress-interval=MS                         time between progress readings, all kept in the results (default 1000)
+   * --sanitize=true                                strip invalid characters and the XML declaration while
+   *                                                sending, instead of running prepxml.sh first
+   * --stub=true                                    write to an in-process StubRESTServer instead of
+   *                                                --host/--restport (REST strategies only, see its --stub- options)
+   * --stub-port=N                                  port for the stub (default any free port)
+   *
+   * Each strategy reads its own options as well, see the strategy classes.
+   *
+   * @param args
+   */
+  public static void main(String args[]) {
+    for (int i = 0;i < args.length;i++) {
+      System.out.println("ARG " + i + ":" + args[i].toString());
+    }
+    try {
+      BenchmarkOptions options = BenchmarkOptions.parse(args);
+      run(options,createStrategies(options));
+      System.out.println("Done.");
+      System.exit(0);
+    } catch (Exception e) {
+      e.printStackTrace(System.out);
+      System.exit(-1);
+    }
+  }
+
+  public static List<IngestStrategy> createStrategies(BenchmarkOptions options) {
+    List<IngestStrategy> strategies = new ArrayList<IngestStrategy>();
+    String[] names = options.get("strategies").split(",");
+    for (int s = 0;s < names.length;s++) {
+      if ("xcc".equals(names[s])) {
+        String[] sessions = options.get("sessions","1").split(",");
+        for (int n = 0;n < sessions.length;n++) {
+          strategies.add(new XCCBatch(Integer.parseInt(sessions[n]),sessions.length > 1));
+        }
+      } else if ("rest-single".equals(names[s])) {
+        String[] executors = options.get("executor","thread").split(",");
+        for (int e = 0;e < executors.length;e++) {
+          strategies.add(new RESTThreaded(executors[e],executors.length > 1));
+        }
+      } else if ("rest-open".equals(names[s])) {
+        strategies.add(new RESTOpenLoop());
+      } else if ("rest-batch".equals(names[s])) {
+        strategies.add(new RESTBatch());
+      } else if ("mlcp".equals(names[s])) {
+        strategies.add(new MLCPImport());
+      } else {
+        throw new IllegalArgumentException("Unknown strategy: " + names[s]);
+      }
+    }
+    return strategies;
+  }
+
+  public static Corpus loadCorpus(BenchmarkOptions options) throws Exception {
+    File source = new File(options.get("corpus"));
+    if (!options.has("generate")) {
+      return Corpus.load(source);
+    }
+    PrescriptionGenerator generator = PrescriptionGenerator.learn(Corpus.load(source),options.getInt("practices",8000),
+        options.getInt("drugs",20000),Long.parseLong(options.get("seed","1")));
+    System.out.println("Learnt " + generator.getPracticeCount() + " practices and " + generator.getDrugCount() + " drugs from " + source);
+    return Corpus.generate(generator,source,options.getInt("generate",0));
+  }
+
+  public static List<BenchmarkResult> run(BenchmarkOptions options,List<IngestStrategy> strategies) throws Exception {
+    StubRESTServer stub = null;
+    if (Boolean.parseBoolean(options.get("stub","false"))) {
+      stub = new StubRESTServer(options);
+      options.set("host","localhost").set("restport",String.valueOf(stub.start(options.getInt("stub-port",0))));
+      if (options.has("hosts")) {
+        options.set("hosts","localhost");
+      }
+      System.out.println("Writing to stub REST server on localhost:" + options.get("restport"));
+    }
+    try {
+      return run(options,strategies,loadCorpus(options));
+    } finally {
+      if (null != stub) {
+        System.out.println(stub.summary());
+        stub.stop();
+      }
+    }
+  }
+
+  static List<BenchmarkResult> run(BenchmarkOptions options,List<IngestStrategy> strategies,Corpus corpus) throws Exception {
+    int loops = options.getInt("loops",1);
+    int warmup = options.getInt("warmup",0);
+    int pause = options.getInt("pause",0);
+
+    ServerStatusSource status = null;
+    if (options.has("server-status")) {
+      status = "xcc".equals(options.get("server-status")) ? new XCCStatusSource(XCCBatch.serverUri(options),options.get("server-database",null))
+          : CannedStatusSource.load(options.get("server-status"));
+    }
+
+    List<BenchmarkResult> results = new ArrayList<BenchmarkResult>();
+    for (int s = 0;s < strategies.size();s++) {
+      IngestStrategy strategy = strategies.get(s);
+      if (s > 0 && pause > 0) {
+        System.out.println("Pausing " + pause + " seconds");
+        Thread.sleep(pause * 1000L);
+      }
+      String uriBase = "/performance/" + strategy.getName() + "/";
+      long baseHeap = ResourceUsage.retainedHeap();
+      strategy.setUp(options,corpus);
+      long setUpHeap = ResourceUsage.retainedHeap() - baseHeap;
+      try {
+        if (warmup > 0) {
+          System.out.println(strategy.getName() + ": warming up with " + warmup + " loops");
+          strategy.run(uriBase + "warmup/",0,warmup,new LatencyRecorder(),new Progress(0));
+        }
+        System.out.println(strategy.getName() + ": measuring " + loops + " loops of " + corpus.size() + " files");
+        LatencyRecorder latency = new LatencyRecorder();
+        Progress progress = new Progress((long) loops * corpus.size());
+        ProgressReporter reporter = new ProgressReporter(strategy.getName(),progress,options.getInt("progress-interval",1000),options.getInt("progress",10));
+        reporter.start();
+        ServerSampler sampler = null;
+        if (null != status) {
+          sampler = new ServerSampler(status,options.getInt("sample-interval",1000),latency);
+          sampler.start();
+        }
+        ResourceUsage before = ResourceUsage.sample();
+        long start = System.currentTimeMillis();
+        long docs = strategy.run(uriBase,0,loops,latency,progress);
+        BenchmarkResult result = new BenchmarkResult(strategy.getName(),docs,System.currentTimeMillis() - start,latency);
+        reporter.halt();
+        result.setTimeline(reporter.getTimeline());
+        reporter.addDetails(result);
+        if (null != sampler) {
+          sampler.halt();
+          result.setServerSamples(sampler.getSamples());
+        }
+        before.addDifference(ResourceUsage.sample(),result);
+        result.setDetail("setup-heap-mb",Math.max(0,setUpHeap) / (1024 * 1024));
+        strategy.addDetails(result);
+        results.add(result);
+        System.out.println(strategy.getName() + ": wrote " + docs + " documents in " + result.getMillis() + " ms (" + result.getDocsPerSecond() + " docs/sec)");
+        System.out.println(strategy.getName() + ": request latency " + latency.summary());
+        if (null != sampler) {
+          System.out.println(ServerSampler.report(strategy.getName(),result.getServerSamples()));
+        }
+      } finally {
+        strategy.tearDown();
+      }
+    }
+
+    System.out.println(BenchmarkResult.header());
+    for (int r = 0;r < results.size();r++) {
+      System.out.println(results.get(r));
+    }
+    for (int r = 0;r < results.size();r++) {
+      for (Map.Entry<String,String> detail: results.get(r).getDetails().entrySet()) {
+        System.out.println(results.get(r).getStrategy() + "\t" + detail.getKey() + "\t" + detail.getValue());
+      }
+    }
+    if (null != status) {
+      status.close();
+    }
+    if (options.has("results")) {
+      ResultLog.append(new File(options.get("results")),options,corpus,results);
+    }
+    return results;
+  }
+}
@@ -0,0 +1,30 @@
+package com.marklogic.adamfowler.performance;
+
+/**
+ * One way of getting the corpus into MarkLogic. IngestDriver calls setUp()
+ * once, run() for the warmup and again for the measured window, then tearDown().
+ */
+public interface IngestStrategy {
+  /**
+   * Short name used in option values, URIs and reports, e.g. rest-batch.
+   */
+  public String getName();
+
+  public void setUp(BenchmarkOptions options,Corpus corpus) throws Exception;
+
+  /**
+   * Writes the corpus loops times beneath uriBase, numbering the passes from
+   * firstLoop, and returns the number of documents written. Each request sent
+   * to the server has its latency recorded, and adds its documents and bytes
+   * to progress when it finishes.
+   */
+  public long run(String uriBase,int firstLoop,int loops,LatencyRecorder latency,Progress progress) throws Exception;
+
+  /**
+   * Adds anything the strategy chose or learned during the run, such as its
+   * concurrency or batch size, to the result. Called after the measured run.
+   */
+  public void addDetails(BenchmarkResult result);
+
+  public void tearDown() throws Exception;
+}
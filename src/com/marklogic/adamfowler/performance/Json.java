@@ -0,0 +1,245 @@
+package com.marklogic.adamfowler.performance;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Just enough JSON for the result files: writes Maps, Lists, Strings, Numbers,
+ * Booleans and null, and parses them back (objects become LinkedHashMaps,
+ * numbers Doubles).
+ */
+public class Json {
+  String text;
+  int pos;
+
+  public static String write(Object value) {
+    StringBuilder sb = new StringBuilder();
+    append(sb,value);
+    return sb.toString();
+  }
+
+  public static void append(StringBuilder sb,Object value) {
+    if (null == value) {
+      sb.append("null");
+    } else if (value instanceof Map) {
+      sb.append('{');
+      Iterator<?> it = ((Map<?,?>) value).entrySet().iterator();
+      while (it.hasNext()) {
+        Map.Entry<?,?> entry = (Map.Entry<?,?>) it.next();
+        quote(sb,String.valueOf(entry.getKey()));
+        sb.append(':');
+        append(sb,entry.getValue());
+        if (it.hasNext()) {
+          sb.append(',');
+        }
+      }
+      sb.append('}');
+    } else if (value instanceof List) {
+      sb.append('[');
+      List<?> list = (List<?>) value;
+      for (int i = 0;i < list.size();i++) {
+        if (i > 0) {
+          sb.append(',');
+        }
+        append(sb,list.get(i));
+      }
+      sb.append(']');
+    } else if (value instanceof Double || value instanceof Float) {
+      double d = ((Number) value).doubleValue();
+      if (Double.isNaN(d) || Double.isInfinite(d)) {
+        sb.append("null");
+      } else if (d == Math.rint(d) && Math.abs(d) < 1e15) {
+        sb.append((long) d);
+      } else {
+        sb.append(d);
+      }
+    } else if (value instanceof Number || value instanceof Boolean) {
+      sb.append(value);
+    } else {
+      quote(sb,value.toString());
+    }
+  }
+
+  static void quote(StringBuilder sb,String s) {
+    sb.append('"');
+    for (int i = 0;i < s.length();i++) {
+      char c = s.charAt(i);
+      if ('"' == c || '\\' == c) {
+        sb.append('\\').append(c);
+      } else if ('\n' == c) {
+        sb.append("\\n");
+      } else if ('\r' == c) {
+        sb.append("\\r");
+      } else if ('\t' == c) {
+        sb.append("\\t");
+      } else if (c < 0x20) {
+        sb.append(String.format("\\u%04x",(int) c));
+      } else {
+        sb.append(c);
+      }
+    }
+    sb.append('"');
+  }
+
+  /**
+   * A detail value as the most specific JSON type it reads as, so numbers
+   * stay numbers in the result file.
+   */
+  public static Object typed(String value) {
+    if (null == value) {
+      return null;
+    }
+    if ("true".equals(value) || "false".equals(value)) {
+      return Boolean.valueOf(value);
+    }
+    try {
+      return Long.valueOf(value);
+    } catch (NumberFormatException nfe) {
+      // not a whole number
+    }
+    try {
+      double d = Double.parseDouble(value);
+      if (!Double.isNaN(d) && !Double.isInfinite(d)) {
+        return d;
+      }
+    } catch (NumberFormatException nfe) {
+      // not a number at all
+    }
+    return value;
+  }
+
+  public static Object parse(String text) {
+    Json parser = new Json();
+    parser.text = text;
+    parser.pos = 0;
+    Object value = parser.value();
+    parser.skipSpace();
+    if (parser.pos != text.length()) {
+      throw parser.error("Trailing characters");
+    }
+    return value;
+  }
+
+  Object value() {
+    skipSpace();
+    if (pos >= text.length()) {
+      throw error("Unexpected end");
+    }
+    char c = text.charAt(pos);
+    if ('{' == c) {
+      pos++;
+      Map<String,Object> map = new LinkedHashMap<String,Object>();
+      skipSpace();
+      if (peek('}')) {
+        return map;
+      }
+      do {
+        skipSpace();
+        String key = string();
+        skipSpace();
+        expect(':');
+        map.put(key,value());
+        skipSpace();
+      } while (peek(','));
+      expect('}');
+      return map;
+    }
+    if ('[' == c) {
+      pos++;
+      List<Object> list = new ArrayList<Object>();
+      skipSpace();
+      if (peek(']')) {
+        return list;
+      }
+      do {
+        list.add(value());
+        skipSpace();
+      } while (peek(','));
+      expect(']');
+      return list;
+    }
+    if ('"' == c) {
+      return string();
+    }
+    if (text.startsWith("true",pos)) {
+      pos += 4;
+      return Boolean.TRUE;
+    }
+    if (text.startsWith("false",pos)) {
+      pos += 5;
+      return Boolean.FALSE;
+    }
+    if (text.startsWith("null",pos)) {
+      pos += 4;
+      return null;
+    }
+    int start = pos;
+    while (pos < text.length() && "+-0123456789.eE".indexOf(text.charAt(pos)) >= 0) {
+      pos++;
+    }
+    if (start == pos) {
+      throw error("Unexpected character");
+    }
+    return Double.valueOf(text.substring(start,pos));
+  }
+
+  String string() {
+    expect('"');
+    StringBuilder sb = new StringBuilder();
+    while (pos < text.length()) {
+      char c = text.charAt(pos++);
+      if ('"' == c) {
+        return sb.toString();
+      }
+      if ('\\' == c) {
+        char e = text.charAt(pos++);
+        if ('n' == e) {
+          sb.append('\n');
+        } else if ('r' == e) {
+          sb.append('\r');
+        } else if ('t' == e) {
+          sb.append('\t');
+        } else if ('b' == e) {
+          sb.append('\b');
+        } else if ('f' == e) {
+          sb.append('\f');
+        } else if ('u' == e) {
+          sb.append((char) Integer.parseInt(text.substring(pos,pos + 4),16));
+          pos += 4;
+        } else {
+          sb.append(e);
+        }
+      } else {
+        sb.append(c);
+      }
+    }
+    throw error("Unterminated string");
+  }
+
+  void skipSpace() {
+    while (pos < text.length() && Character.isWhitespace(text.charAt(pos))) {
+      pos++;
+    }
+  }
+
+  boolean peek(char c) {
+    if (pos < text.length() && text.charAt(pos) == c) {
+      pos++;
+      return true;
+    }
+    return false;
+  }
+
+  void expect(char c) {
+    if (!peek(c)) {
+      throw error("Expected '" + c + "'");
+    }
+  }
+
+  IllegalArgumentException error(String message) {
+    return new IllegalArgumentException(message + " at " + pos + " in JSON: " + text);
+  }
+}
@@ -0,0 +1,108 @@
+package com.marklogic.adamfowler.performance;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Collects per-operation latency from many writer threads at once into a
+ * log-linear histogram, in the style of HdrHistogram. Every power of two range
+ * of nanoseconds is split into 64 equal sub-buckets, so any recorded value is
+ * reported to within about 1.5% of its true value. record() is lock-free and
+ * allocates nothing, so it is safe to call on the hot write path.
+ */
+public class LatencyRecorder {
+  static final int SUB_BUCKET_BITS = 7;
+  static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+  static final int SUB_BUCKET_HALF = SUB_BUCKET_COUNT / 2;
+  static final int BUCKET_COUNT = SUB_BUCKET_COUNT + (64 - SUB_BUCKET_BITS) * SUB_BUCKET_HALF;
+
+  static final double[] PERCENTILES = {50.0,90.0,99.0,99.9};
+
+  AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+  AtomicLong count = new AtomicLong();
+  AtomicLong totalNanos = new AtomicLong();
+  AtomicLong maxNanos = new AtomicLong();
+
+  public void record(long nanos) {
+    if (nanos < 0) {
+      nanos = 0; // clock went backwards
+    }
+    counts.incrementAndGet(indexOf(nanos));
+    count.incrementAndGet();
+    totalNanos.addAndGet(nanos);
+    long max;
+    while (nanos > (max = maxNanos.get()) && !maxNanos.compareAndSet(max,nanos)) {
+      // lost a race with another writer, try again
+    }
+  }
+
+  public long getCount() {
+    return count.get();
+  }
+
+  public double getMeanMillis() {
+    long c = count.get();
+    return (0 == c) ? 0.0 : totalNanos.get() / (c * 1000000.0);
+  }
+
+  public double getMaxMillis() {
+    return maxNanos.get() / 1000000.0;
+  }
+
+  /**
+   * The latency that the given percentage of recorded operations came in at or under.
+   */
+  public double getPercentileMillis(double percentile) {
+    long total = 0;
+    for (int i = 0;i < BUCKET_COUNT;i++) {
+      total += counts.get(i);
+    }
+    if (0 == total) {
+      return 0.0;
+    }
+    long target = Math.max(1,(long) Math.ceil(total * percentile / 100.0));
+    long seen = 0;
+    for (int i = 0;i < BUCKET_COUNT;i++) {
+      seen += counts.get(i);
+      if (seen >= target) {
+        return Math.min(highestValueAt(i),maxNanos.get()) / 1000000.0;
+      }
+    }
+    return getMaxMillis();
+  }
+
+  /**
+   * One line of p50/p90/p99/p99.9/max in milliseconds.
+   */
+  public String summary() {
+    StringBuilder sb = new StringBuilder();
+    for (int p = 0;p < PERCENTILES.length;p++) {
+      sb.append(String.format("p%s=%.2f ",trim(PERCENTILES[p]),getPercentileMillis(PERCENTILES[p])));
+    }
+    sb.append(String.format("max=%.2f ms",getMaxMillis()));
+    return sb.toString();
+  }
+
+  static String trim(double percentile) {
+    return (percentile == Math.rint(percentile)) ? String.valueOf((long) percentile) : String.valueOf(percentile);
+  }
+
+  static int indexOf(long value) {
+    if (value < SUB_BUCKET_COUNT) {
+      return (int) value;
+    }
+    // shift so the value keeps its top SUB_BUCKET_BITS bits
+    int shift = 64 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+    int subBucket = (int) (value >>> shift);
+    return SUB_BUCKET_COUNT + (shift - 1) * SUB_BUCKET_HALF + (subBucket - SUB_BUCKET_HALF);
+  }
+
+  static long highestValueAt(int index) {
+    if (index < SUB_BUCKET_COUNT) {
+      return index;
+    }
+    int shift = (index - SUB_BUCKET_COUNT) / SUB_BUCKET_HALF + 1;
+    long subBucket = (index - SUB_BUCKET_COUNT) % SUB_BUCKET_HALF + SUB_BUCKET_HALF;
+    return ((subBucket + 1) << shift) - 1;
+  }
+}
@@ -0,0 +1,105 @@
+package com.marklogic.adamfowler.performance;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The mlcp strategy: runs mlcp.sh import over the whole input tree in a
+ * subprocess. MLCP reads every sub folder of its input path rather than
+ * repeating one folder, so the loop count is ignored here and each run is a
+ * single import, recorded as one request. Copy the corpus folder LOOPS
+ * times beneath the input path to match the other strategies.
+ *
+ * --mlcp=path          mlcp.sh to run (default $MLCP)
+ * --mlcp-input=folder  input_file_path (default the corpus folder's parent).
+ *                      MLCP cannot read a packed corpus, so give a folder here
+ *                      when --corpus is one
+ * --mlcp-threads=N     thread_count (default 10)
+ * --mlcp-batch=N       batch_size (default 500)
+ */
+public class MLCPImport implements IngestStrategy {
+  BenchmarkOptions options;
+  File input;
+
+  public String getName() {
+    return "mlcp";
+  }
+
+  public void setUp(BenchmarkOptions options,Corpus corpus) {
+    this.options = options;
+    File parent = corpus.getSource().getAbsoluteFile().getParentFile();
+    input = new File(options.get("mlcp-input",parent.getPath()));
+  }
+
+  public long run(String uriBase,int firstLoop,int loops,LatencyRecorder latency,Progress progress) throws Exception {
+    String mlcp = options.get("mlcp",System.getenv("MLCP"));
+    if (null == mlcp) {
+      throw new IllegalArgumentException("Set --mlcp= or the MLCP environment variable to the mlcp.sh script");
+    }
+    List<String> command = new ArrayList<String>();
+    command.add(mlcp);
+    command.add("import");
+    command.add("-host");
+    command.add(options.get("host"));
+    command.add("-port");
+    command.add(options.get("xdbcport"));
+    command.add("-username");
+    command.add(options.get("user","admin"));
+    command.add("-password");
+    command.add(options.get("password","admin"));
+    command.add("-mode");
+    command.add("local");
+    command.add("-thread_count");
+    command.add(options.get("mlcp-threads","10"));
+    command.add("-batch_size");
+    command.add(options.get("mlcp-batch","500"));
+    command.add("-input_file_path");
+    command.add(input.getPath());
+    command.add("-input_file_type");
+    command.add("documents");
+    command.add("-fastload");
+    command.add("true");
+    command.add("-output_uri_prefix");
+    command.add(uriBase);
+
+    System.out.println("Using MLCP to import " + input);
+    ProcessBuilder builder = new ProcessBuilder(command);
+    builder.redirectErrorStream(true);
+    builder.inheritIO();
+    long start = System.nanoTime();
+    int exit = builder.start().waitFor();
+    latency.record(System.nanoTime() - start);
+    if (0 != exit) {
+      throw new IllegalStateException("mlcp exited with status " + exit);
+    }
+    // mlcp runs in its own process, so progress only moves at the end
+    long docs = countFiles(input);
+    progress.completed(docs,0);
+    return docs;
+  }
+
+  public void addDetails(BenchmarkResult result) {
+    result.setDetail("thread_count",options.get("mlcp-threads","10"));
+    result.setDetail("batch_size",options.get("mlcp-batch","500"));
+  }
+
+  public void tearDown() {
+  }
+
+  static long countFiles(File dir) {
+    long count = 0;
+    File[] children = dir.listFiles();
+    if (null == children) {
+      return 0;
+    }
+    for (int i = 0;i < children.length;i++) {
+      if (children[i].isDirectory()) {
+        count += countFiles(children[i]);
+      } else if (new FolderFilter().accept(children[i])) {
+        count++;
+      }
+    }
+    return count;
+  }
+}
@@ -0,0 +1,78 @@
+package com.marklogic.adamfowler.performance;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads a file written by CorpusPacker by memory-mapping it once and handing
+ * out read-only slices of the mapping, so no document is ever copied onto the
+ * Java heap. Slices are independent and safe to use from many threads.
+ */
+public class PackedCorpus {
+  File file;
+  MappedByteBuffer mapped;
+  int count;
+
+  public static PackedCorpus open(File file) throws IOException {
+    RandomAccessFile raf = new RandomAccessFile(file,"r");
+    PackedCorpus corpus = new PackedCorpus();
+    try {
+      FileChannel channel = raf.getChannel();
+      if (channel.size() > Integer.MAX_VALUE) {
+        throw new IOException("Packed corpus over 2GB cannot be mapped in one piece: " + file);
+      }
+      corpus.file = file;
+      corpus.mapped = channel.map(FileChannel.MapMode.READ_ONLY,0,channel.size());
+    } finally {
+      raf.close(); // the mapping stays valid once the file is closed
+    }
+    if (CorpusPacker.MAGIC != corpus.mapped.getInt(0)) {
+      throw new IOException("Not a packed corpus: " + file);
+    }
+    if (CorpusPacker.VERSION != corpus.mapped.getInt(4)) {
+      throw new IOException("Unsupported packed corpus version " + corpus.mapped.getInt(4) + ": " + file);
+    }
+    corpus.count = corpus.mapped.getInt(8);
+    return corpus;
+  }
+
+  public static boolean isPacked(File file) throws IOException {
+    if (!file.isFile() || file.length() < CorpusPacker.HEADER_SIZE) {
+      return false;
+    }
+    RandomAccessFile raf = new RandomAccessFile(file,"r");
+    try {
+      return CorpusPacker.MAGIC == raf.readInt();
+    } finally {
+      raf.close();
+    }
+  }
+
+  public int size() {
+    return count;
+  }
+
+  public int length(int i) {
+    return mapped.getInt(CorpusPacker.HEADER_SIZE + i * CorpusPacker.INDEX_ENTRY_SIZE + 8);
+  }
+
+  /**
+   * A read-only view of document i, positioned at its first byte.
+   */
+  public ByteBuffer get(int i) {
+    if (i < 0 || i >= count) {
+      throw new IndexOutOfBoundsException("No document " + i + " in " + count);
+    }
+    int entry = CorpusPacker.HEADER_SIZE + i * CorpusPacker.INDEX_ENTRY_SIZE;
+    int offset = (int) mapped.getLong(entry);
+    int length = mapped.getInt(entry + 8);
+    ByteBuffer view = mapped.duplicate();
+    view.position(offset);
+    view.limit(offset + length);
+    return view.slice().asReadOnlyBuffer();
+  }
+}
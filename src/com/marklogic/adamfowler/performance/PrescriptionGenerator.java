@@ -0,0 +1,332 @@
+package com.marklogic.adamfowler.performance;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Generates as many unique prescription-summary documents as a benchmark
+ * needs, shaped like a sample corpus such as docs/0001.
+ *
+ * From the sample it learns the SHA/PCT organisations and how often each
+ * appears, the practices and drugs (BNFCODE and BNFNAME) prescribed, the
+ * spread of ITEMS and of cost per item, the ratio of ACTCOST to NIC, the
+ * quantity per item and the PERIODs. It then widens the sample's practices
+ * and drugs to national cardinalities by inventing new codes in the same
+ * format, and draws them with a Zipf skew so a few are very common. ITEMS and
+ * cost per item are log-normal, so most rows are small with a long tail of
+ * large ones, as in the real data.
+ *
+ * Document n depends only on the seed and n, so runs are reproducible and
+ * documents can be generated in any order from any thread.
+ */
+public class PrescriptionGenerator {
+  static final Pattern FIELD = Pattern.compile("<([A-Z]+)>([^<]*)</\\1>");
+
+  long seed;
+
+  String[] orgSha;
+  String[] orgPct;
+  double[] orgCumulative;
+
+  String[] practices;
+  int[] practiceOrg;
+  double[] practiceCumulative;
+
+  String[] bnfCodes;
+  String[] bnfNames;
+  double[] drugCumulative;
+
+  double itemsMu;
+  double itemsSigma;
+  double unitNicMu;
+  double unitNicSigma;
+  double costRatioMean;
+  double costRatioSd;
+  int[] quantityPerItem;
+  String[] periods;
+
+  /**
+   * Learns from every document in the sample corpus.
+   *
+   * @param practiceCount distinct practices to generate (at least those in the sample)
+   * @param drugCount distinct BNF codes to generate (at least those in the sample)
+   */
+  public static PrescriptionGenerator learn(Corpus sample,int practiceCount,int drugCount,long seed) throws IOException {
+    String[] xml = sample.getXml();
+    Map<String,Integer> orgCounts = new LinkedHashMap<String,Integer>();
+    Map<String,String> practiceOrgs = new LinkedHashMap<String,String>();
+    Map<String,String> drugs = new LinkedHashMap<String,String>();
+    Set<String> periodSet = new HashSet<String>();
+    List<Double> lnItems = new ArrayList<Double>();
+    List<Double> lnUnitNic = new ArrayList<Double>();
+    List<Double> costRatios = new ArrayList<Double>();
+    List<Integer> perItem = new ArrayList<Integer>();
+
+    Map<String,String> fields = new HashMap<String,String>();
+    for (int i = 0;i < xml.length;i++) {
+      fields.clear();
+      Matcher m = FIELD.matcher(xml[i]);
+      while (m.find()) {
+        fields.put(m.group(1),m.group(2));
+      }
+      if (!fields.containsKey("PRACTICE") || !fields.containsKey("BNFCODE")) {
+        continue; // not a prescription-summary
+      }
+      String org = fields.get("SHA") + "/" + fields.get("PCT");
+      orgCounts.put(org,orgCounts.containsKey(org) ? orgCounts.get(org) + 1 : 1);
+      practiceOrgs.put(fields.get("PRACTICE"),org);
+      drugs.put(fields.get("BNFCODE"),fields.get("BNFNAME"));
+      periodSet.add(fields.get("PERIOD"));
+      int items = Integer.parseInt(fields.get("ITEMS"));
+      double nic = Double.parseDouble(fields.get("NIC"));
+      double actCost = Double.parseDouble(fields.get("ACTCOST"));
+      int quantity = Integer.parseInt(fields.get("QUANTITY"));
+      if (items > 0) {
+        lnItems.add(Math.log(items));
+        if (nic > 0) {
+          lnUnitNic.add(Math.log(nic / items));
+          costRatios.add(actCost / nic);
+        }
+        perItem.add(Math.max(1,Math.round((float) quantity / items)));
+      }
+    }
+    if (drugs.isEmpty()) {
+      throw new IllegalArgumentException("No prescription-summary documents in the sample corpus");
+    }
+
+    PrescriptionGenerator gen = new PrescriptionGenerator();
+    gen.seed = seed;
+    Random random = new Random(seed);
+
+    List<String> orgs = new ArrayList<String>(orgCounts.keySet());
+    gen.orgSha = new String[orgs.size()];
+    gen.orgPct = new String[orgs.size()];
+    double[] orgWeights = new double[orgs.size()];
+    for (int o = 0;o < orgs.size();o++) {
+      String[] parts = orgs.get(o).split("/",2);
+      gen.orgSha[o] = parts[0];
+      gen.orgPct[o] = parts[1];
+      orgWeights[o] = orgCounts.get(orgs.get(o));
+    }
+    gen.orgCumulative = cumulative(orgWeights);
+
+    // the sample's practices first, then new codes of the same shape, e.g. F81110
+    practiceCount = Math.max(practiceCount,practiceOrgs.size());
+    gen.practices = new String[practiceCount];
+    gen.practiceOrg = new int[practiceCount];
+    Set<String> used = new HashSet<String>();
+    int p = 0;
+    for (Map.Entry<String,String> entry: practiceOrgs.entrySet()) {
+      gen.practices[p] = entry.getKey();
+      gen.practiceOrg[p] = orgs.indexOf(entry.getValue());
+      used.add(entry.getKey());
+      p++;
+    }
+    String[] samplePractices = practiceOrgs.keySet().toArray(new String[practiceOrgs.size()]);
+    for (;p < practiceCount;p++) {
+      String code;
+      do {
+        char region = samplePractices[random.nextInt(samplePractices.length)].charAt(0);
+        code = region + String.format(Locale.ROOT,"%05d",random.nextInt(100000));
+      } while (!used.add(code));
+      gen.practices[p] = code;
+      gen.practiceOrg[p] = pick(gen.orgCumulative,random.nextDouble());
+    }
+    gen.practiceCumulative = zipf(practiceCount,0.6);
+
+    // the sample's drugs first, then new presentations of them, each with a fresh code
+    drugCount = Math.max(drugCount,drugs.size());
+    gen.bnfCodes = new String[drugCount];
+    gen.bnfNames = new String[drugCount];
+    used.clear();
+    int d = 0;
+    for (Map.Entry<String,String> entry: drugs.entrySet()) {
+      gen.bnfCodes[d] = entry.getKey();
+      gen.bnfNames[d] = entry.getValue();
+      used.add(entry.getKey());
+      d++;
+    }
+    int sampleDrugs = d;
+    for (;d < drugCount;d++) {
+      int base = random.nextInt(sampleDrugs);
+      String code;
+      do {
+        String stem = gen.bnfCodes[base];
+        stem = stem.substring(0,Math.max(0,stem.length() - 2));
+        code = stem + (char) ('A' + random.nextInt(26)) + (char) ('A' + random.nextInt(26));
+      } while (!used.add(code));
+      gen.bnfCodes[d] = code;
+      gen.bnfNames[d] = rescaleStrength(gen.bnfNames[base],2 + random.nextInt(4));
+    }
+    // shuffle so the most popular drugs are not simply the ones the sample happened to list first
+    shuffle(gen.bnfCodes,gen.bnfNames,random);
+    gen.drugCumulative = zipf(drugCount,1.0);
+
+    double[] items = meanAndSd(lnItems);
+    gen.itemsMu = items[0];
+    gen.itemsSigma = items[1];
+    double[] unitNic = meanAndSd(lnUnitNic);
+    gen.unitNicMu = unitNic[0];
+    gen.unitNicSigma = unitNic[1];
+    double[] ratio = meanAndSd(costRatios);
+    gen.costRatioMean = ratio[0];
+    gen.costRatioSd = ratio[1];
+    gen.quantityPerItem = new int[perItem.size()];
+    for (int q = 0;q < gen.quantityPerItem.length;q++) {
+      gen.quantityPerItem[q] = perItem.get(q);
+    }
+    gen.periods = periodSet.toArray(new String[periodSet.size()]);
+    Arrays.sort(gen.periods);
+    return gen;
+  }
+
+  /**
+   * Document n, as UTF-8 bytes.
+   */
+  public byte[] generate(long n) {
+    return generateXml(n).getBytes(Corpus.UTF8);
+  }
+
+  /**
+   * Document n.
+   */
+  public String generateXml(long n) {
+    Random random = new Random(mix(seed,n));
+    int practice = pick(practiceCumulative,random.nextDouble());
+    int org = practiceOrg[practice];
+    int drug = pick(drugCumulative,random.nextDouble());
+    int items = (int) Math.max(1,Math.round(Math.exp(itemsMu + itemsSigma * random.nextGaussian())));
+    double nic = items * Math.exp(unitNicMu + unitNicSigma * random.nextGaussian());
+    double ratio = Math.max(0.5,Math.min(1.2,costRatioMean + costRatioSd * random.nextGaussian()));
+    double actCost = nic * ratio;
+    int quantity = items * quantityPerItem[random.nextInt(quantityPerItem.length)];
+    String period = periods[random.nextInt(periods.length)];
+
+    StringBuilder sb = new StringBuilder(320);
+    sb.append("<prescription-summary>");
+    sb.append("<SHA>").append(orgSha[org]).append("</SHA>");
+    sb.append("<PCT>").append(orgPct[org]).append("</PCT>");
+    sb.append("<PRACTICE>").append(practices[practice]).append("</PRACTICE>");
+    sb.append("<BNFCODE>").append(bnfCodes[drug]).append("</BNFCODE>");
+    sb.append("<BNFNAME>").append(bnfNames[drug]).append("</BNFNAME>");
+    pad(sb.append("<ITEMS>"),items,7).append("</ITEMS>");
+    money(sb.append("<NIC>"),nic).append("</NIC>");
+    money(sb.append("<ACTCOST>"),actCost).append("</ACTCOST>");
+    pad(sb.append("<QUANTITY>"),quantity,7).append("</QUANTITY>");
+    sb.append("<PERIOD>").append(period).append("</PERIOD>");
+    sb.append("</prescription-summary>");
+    return sb.toString();
+  }
+
+  public int getPracticeCount() {
+    return practices.length;
+  }
+
+  public int getDrugCount() {
+    return bnfCodes.length;
+  }
+
+  /**
+   * Appends value zero padded to width digits, as the source data does.
+   */
+  static StringBuilder pad(StringBuilder sb,long value,int width) {
+    String digits = Long.toString(value);
+    for (int i = digits.length();i < width;i++) {
+      sb.append('0');
+    }
+    return sb.append(digits);
+  }
+
+  /**
+   * Appends an amount as 8 zero padded digits, a point and pence, e.g. 00000010.47.
+   */
+  static StringBuilder money(StringBuilder sb,double amount) {
+    long pence = Math.round(amount * 100.0);
+    pad(sb,pence / 100,8).append('.');
+    return pad(sb,pence % 100,2);
+  }
+
+  static long mix(long seed,long n) {
+    // SplitMix64 finaliser, so neighbouring documents get unrelated streams
+    long z = seed + (n + 1) * 0x9E3779B97F4A7C15L;
+    z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+    z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+    return z ^ (z >>> 31);
+  }
+
+  static double[] zipf(int n,double exponent) {
+    double[] weights = new double[n];
+    for (int i = 0;i < n;i++) {
+      weights[i] = 1.0 / Math.pow(i + 1,exponent);
+    }
+    return cumulative(weights);
+  }
+
+  static double[] cumulative(double[] weights) {
+    double[] cumulative = new double[weights.length];
+    double total = 0.0;
+    for (int i = 0;i < weights.length;i++) {
+      total += weights[i];
+      cumulative[i] = total;
+    }
+    for (int i = 0;i < weights.length;i++) {
+      cumulative[i] /= total;
+    }
+    return cumulative;
+  }
+
+  static int pick(double[] cumulative,double u) {
+    int i = Arrays.binarySearch(cumulative,u);
+    return Math.min(cumulative.length - 1,(i < 0) ? -i - 1 : i);
+  }
+
+  static double[] meanAndSd(List<Double> values) {
+    if (values.isEmpty()) {
+      return new double[] {0.0,0.0};
+    }
+    double sum = 0.0;
+    for (int i = 0;i < values.size();i++) {
+      sum += values.get(i);
+    }
+    double mean = sum / values.size();
+    double squares = 0.0;
+    for (int i = 0;i < values.size();i++) {
+      squares += (values.get(i) - mean) * (values.get(i) - mean);
+    }
+    return new double[] {mean,Math.sqrt(squares / values.size())};
+  }
+
+  /**
+   * Multiplies the first number in a drug name, so "Tab 40mg" can become "Tab 120mg".
+   */
+  static String rescaleStrength(String name,int factor) {
+    Matcher m = Pattern.compile("\\d+").matcher(name);
+    if (!m.find() || m.group().length() > 6) {
+      return name;
+    }
+    return name.substring(0,m.start()) + (Long.parseLong(m.group()) * factor) + name.substring(m.end());
+  }
+
+  static void shuffle(String[] codes,String[] names,Random random) {
+    for (int i = codes.length - 1;i > 0;i--) {
+      int j = random.nextInt(i + 1);
+      String code = codes[i];
+      codes[i] = codes[j];
+      codes[j] = code;
+      String name = names[i];
+      names[i] = names[j];
+      names[j] = name;
+    }
+  }
+}
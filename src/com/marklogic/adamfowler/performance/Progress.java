@@ -0,0 +1,50 @@
+package com.marklogic.adamfowler.performance;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Running totals of what a strategy has written so far, bumped by every
+ * sending thread as its requests finish and read by a ProgressReporter.
+ * LongAdder keeps the hot path to an uncontended add per thread.
+ */
+public class Progress {
+  long expectedDocs;
+  LongAdder docs = new LongAdder();
+  LongAdder bytes = new LongAdder();
+  LongAdder errors = new LongAdder();
+
+  /**
+   * @param expectedDocs documents the run should write, for the ETA, or 0 if not known
+   */
+  public Progress(long expectedDocs) {
+    this.expectedDocs = expectedDocs;
+  }
+
+  public void completed(long docs,long bytes) {
+    this.docs.add(docs);
+    this.bytes.add(bytes);
+  }
+
+  /**
+   * A request that failed, and the documents that went with it.
+   */
+  public void failed(long docs) {
+    errors.add(docs);
+  }
+
+  public long getExpectedDocs() {
+    return expectedDocs;
+  }
+
+  public long getDocs() {
+    return docs.sum();
+  }
+
+  public long getBytes() {
+    return bytes.sum();
+  }
+
+  public long getErrors() {
+    return errors.sum();
+  }
+}
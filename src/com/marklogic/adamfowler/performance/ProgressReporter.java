@@ -0,0 +1,176 @@
+package com.marklogic.adamfowler.performance;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads a strategy's Progress once per interval during the measured window
+ * and keeps every reading, so throughput dips such as a merge a few minutes
+ * in show up in the results. Every printEvery readings it prints the
+ * current and average rate and an ETA.
+ */
+public class ProgressReporter extends Thread {
+  String strategy;
+  Progress progress;
+  long intervalMillis;
+  int printEvery;
+  List<Point> timeline = new ArrayList<Point>();
+  volatile boolean running = true;
+  long start;
+
+  /**
+   * @param printEvery readings between printed lines, or 0 to print nothing
+   */
+  public ProgressReporter(String strategy,Progress progress,long intervalMillis,int printEvery) {
+    this.strategy = strategy;
+    this.progress = progress;
+    this.intervalMillis = intervalMillis;
+    this.printEvery = printEvery;
+    setName("progress-reporter");
+    setDaemon(true);
+  }
+
+  public void start() {
+    start = System.nanoTime();
+    super.start();
+  }
+
+  public void run() {
+    long next = start;
+    while (running) {
+      // fixed rate, as in ServerSampler
+      next += intervalMillis * 1000000L;
+      long wait = next - System.nanoTime();
+      if (wait > 0) {
+        try {
+          Thread.sleep(wait / 1000000L,(int) (wait % 1000000L));
+        } catch (InterruptedException ie) {
+          // halted
+        }
+      } else {
+        next = System.nanoTime();
+      }
+      if (running) {
+        Point point = sample();
+        if (printEvery > 0 && 0 == timeline.size() % printEvery) {
+          System.out.println(line(point));
+        }
+      }
+    }
+  }
+
+  Point sample() {
+    Point point = new Point((System.nanoTime() - start) / 1000000L,progress.getDocs(),progress.getBytes(),progress.getErrors());
+    synchronized (timeline) {
+      point.docsPerSecond = point.rateSince(timeline.isEmpty() ? new Point(0,0,0,0) : timeline.get(timeline.size() - 1));
+      timeline.add(point);
+    }
+    return point;
+  }
+
+  String line(Point point) {
+    long average = point.docs * 1000 / Math.max(1,point.millis);
+    StringBuilder sb = new StringBuilder();
+    sb.append(strategy).append(": ").append(point.millis / 1000).append("s ").append(point.docs);
+    if (progress.getExpectedDocs() > 0) {
+      sb.append('/').append(progress.getExpectedDocs());
+    }
+    sb.append(" docs, ").append(point.docsPerSecond).append(" docs/sec now, ").append(average).append(" average, ")
+        .append(String.format("%.1f",point.bytes / 1048576.0 * 1000 / Math.max(1,point.millis))).append(" MB/sec");
+    if (point.errors > 0) {
+      sb.append(", ").append(point.errors).append(" failed");
+    }
+    if (progress.getExpectedDocs() > 0 && average > 0) {
+      sb.append(", ETA ").append(Math.max(0,progress.getExpectedDocs() - point.docs) / average).append('s');
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Stops reading after one final reading, so the end of the window is covered.
+   */
+  public void halt() throws InterruptedException {
+    running = false;
+    interrupt();
+    join();
+    sample();
+  }
+
+  public List<Point> getTimeline() {
+    synchronized (timeline) {
+      return new ArrayList<Point>(timeline);
+    }
+  }
+
+  /**
+   * The slowest and fastest whole intervals, the quickest way to spot a stall.
+   */
+  public void addDetails(BenchmarkResult result) {
+    List<Point> points = getTimeline();
+    // the last reading is usually a partial interval
+    if (points.size() < 2) {
+      return;
+    }
+    points.remove(points.size() - 1);
+    long min = Long.MAX_VALUE;
+    long max = 0;
+    long minAt = 0;
+    for (int p = 0;p < points.size();p++) {
+      if (points.get(p).docsPerSecond < min) {
+        min = points.get(p).docsPerSecond;
+        minAt = points.get(p).millis;
+      }
+      max = Math.max(max,points.get(p).docsPerSecond);
+    }
+    result.setDetail("interval-docs-per-sec-min",min);
+    result.setDetail("interval-docs-per-sec-min-at-secs",String.format("%.1f",minAt / 1000.0));
+    result.setDetail("interval-docs-per-sec-max",max);
+  }
+
+  /**
+   * Totals at one reading, and the docs/sec since the reading before.
+   */
+  public static class Point {
+    long millis;
+    long docs;
+    long bytes;
+    long errors;
+    long docsPerSecond;
+
+    public Point(long millis,long docs,long bytes,long errors) {
+      this.millis = millis;
+      this.docs = docs;
+      this.bytes = bytes;
+      this.errors = errors;
+    }
+
+    long rateSince(Point previous) {
+      long elapsed = millis - previous.millis;
+      return (elapsed <= 0) ? 0 : (docs - previous.docs) * 1000 / elapsed;
+    }
+
+    public long getMillis() {
+      return millis;
+    }
+
+    public long getDocs() {
+      return docs;
+    }
+
+    public long getDocsPerSecond() {
+      return docsPerSecond;
+    }
+
+    public Map<String,Object> toMap() {
+      Map<String,Object> map = new LinkedHashMap<String,Object>();
+      map.put("ms",millis);
+      map.put("docs",docs);
+      map.put("bytes",bytes);
+      map.put("errors",errors);
+      map.put("docs-per-sec",docsPerSecond);
+      return map;
+    }
+  }
+}
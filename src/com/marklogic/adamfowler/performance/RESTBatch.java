@@ -1,15 +1,393 @@
 package com.marklogic.adamfowler.performance;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
+import java.util.List;
+import java.util.function.BiConsumer;
 
-import com.marklogic.client.DatabaseClient;
-import com.marklogic.client.DatabaseClientFactory;
-import com.marklogic.client.DatabaseClientFactory.Authentication;
 import com.marklogic.client.example.batch.BatchManager;
+import com.marklogic.client.example.batch.BatchRetryPolicy;
+import com.marklogic.client.example.batch.BatchWriter;
+import com.marklogic.client.io.marker.AbstractWriteHandle;
+
+/**
+ * The rest-batch strategy: the corpus is sent as docbatch extension requests.
+ * By default one producer thread builds every batch and pipelines them through
+ * BatchManager.applyAsync(), preparing the next batch while earlier ones are
+ * on the wire. --dispatch=thread instead starts a BatchWrapper thread per
+ * loop over the corpus, each applying its batches one after another.
+ * --dispatch=writer feeds documents one at a time to a BatchWriter per client,
+ * as a continuous feed would, and lets it decide when to send each batch.
+ *
+ * The number of batches in flight (loops, with --dispatch=thread) is found by
+ * an AimdLimiter: it grows while throughput keeps improving and apply()
+ * latency stays within the target, and halves on a latency spike or a failed
+ * BatchResponse. BatchWriters are only held back by --client-inflight.
+ *
+ * Documents that fail, alone or with their whole batch, are sent again by a
+ * BatchRetryPolicy after a jittered, doubling wait, while the retry budget
+ * lasts; the rest are dead letters. Progress and the per-host counts only
+ * cover first attempts, and the resends are reported on their own.
+ *
+ * --dispatch=async|thread|writer  pipeline from one thread (default), a thread
+ *                       per loop, or through BatchWriters
+ * --writer-threads=N    threads writing documents, with --dispatch=writer (default 1)
+ * --batch-bytes=N       with --dispatch=writer, also send once a batch holds N
+ *                       bytes of content (default 0, no limit)
+ * --linger=MS           with --dispatch=writer, send a batch that has not filled
+ *                       MS after its first document (default 1000)
+ * --client-inflight=N   most applyAsync() requests in flight per client (default --max-inflight)
+ * --inflight=N          starting in-flight limit (default 30)
+ * --min-inflight=N      lowest limit (default 1)
+ * --max-inflight=N      highest limit (default 256)
+ * --target-latency=MS   apply() latency above which the limit backs off (default 2000)
+ * --concurrency=fixed   hold the limit at --inflight instead of adapting it
+ * --content=bytes|string  send raw bytes (default) or decoded strings, see RESTContent
+ * --batch-size=N        documents per BatchRequest (default 100)
+ * --batch-size=auto     let a BatchSizeTuner probe --batch-sizes (default
+ *                       25,50,100,200,400,800) for --probe-samples applies
+ *                       each (default 5) and keep the fastest
+ * --retries=N           resends of a failed document, 0 for none (default 3)
+ * --retry-delay=MS      longest wait before the first resend, doubling for each
+ *                       one after (default 100)
+ * --retry-max-delay=MS  longest wait before any resend (default 10000)
+ * --retry-budget=F      documents that may be resent, as a fraction of those sent
+ *                       (default 0.2), on top of --retry-budget-min (default 100)
+ * --dead-letter=FILE    append documents that are given up on to FILE, instead
+ *                       of printing them
+ * --hosts=h1,h2 --connections-per-host=N --select=round-robin|least-outstanding|random
+ *                       spread batches over several hosts and clients, see ClientPool
+ */
+public class RESTBatch implements IngestStrategy {
+  BenchmarkOptions options;
+  ClientPool clients;
+  RESTContent content;
+  AimdLimiter limiter;
+  int split;
+  BatchSizeTuner tuner = null;
+  String dispatch;
+  long[] writerFlushes = null;
+  BatchRetryPolicy retries = null;
+  DeadLetterLog deadLetters = null;
+
+  public String getName() {
+    return "rest-batch";
+  }
+
+  public void setUp(BenchmarkOptions options,Corpus corpus) throws Exception {
+    this.options = options;
+    // hold file content in memory between adds (faster, less disc io)
+    content = RESTContent.from(options,corpus);
+    // a batch manager for every client, parallelised over hosts and connections - should use multiple cores on server side
+    clients = ClientPool.from(options);
+    dispatch = options.get("dispatch","async");
+    if (!"async".equals(dispatch) && !"thread".equals(dispatch) && !"writer".equals(dispatch)) {
+      throw new IllegalArgumentException("Unknown dispatch: " + dispatch);
+    }
+    // the limiter, not the clients, should be what holds batches back
+    ClientPool.Member[] members = clients.getMembers();
+    for (int m = 0;m < members.length;m++) {
+      members[m].getBatches().setMaxInFlight(options.getInt("client-inflight",options.getInt("max-inflight",256)));
+    }
+
+    // the tuner lives as long as the strategy, so it can do its probing during the warmup
+    String batchSize = options.get("batch-size","100");
+    if ("auto".equals(batchSize)) {
+      tuner = BatchSizeTuner.parse(options.get("batch-sizes","25,50,100,200,400,800"),options.getInt("probe-samples",5),content.size());
+    } else {
+      split = Integer.parseInt(batchSize);
+    }
+    if ("writer".equals(dispatch) && null != tuner) {
+      throw new IllegalArgumentException("--dispatch=writer needs a fixed --batch-size");
+    }
+
+    int resends = options.getInt("retries",3);
+    if (resends > 0) {
+      retries = new BatchRetryPolicy();
+      retries.setMaxAttempts(resends + 1);
+      retries.setDelayMillis(options.getInt("retry-delay",100),options.getInt("retry-max-delay",10000));
+      retries.setBudget(Double.parseDouble(options.get("retry-budget","0.2")),options.getInt("retry-budget-min",100));
+      // a streamed document is read up by the first attempt; bytes and strings can simply be sent again
+      if (content.isSingleUse()) {
+        retries.setContentSource(new BatchRetryPolicy.ContentSource() {
+          public AbstractWriteHandle reopen(String uri,AbstractWriteHandle used) {
+            return content.reopen(used);
+          }
+        });
+      }
+      if (options.has("dead-letter")) {
+        deadLetters = new DeadLetterLog(new File(options.get("dead-letter")));
+        retries.setDeadLetterSink(deadLetters);
+      }
+    }
+  }
+
+  public long run(String uriBase,int firstLoop,int loops,LatencyRecorder latency,Progress progress) throws Exception {
+    System.out.println("Using Erik's REST Batch Extension to add " + content.size() + " files " + loops + " times.");
+
+    clients.reset();
+    if (null != retries) {
+      retries.reset();
+    }
+    limiter = new AimdLimiter(getName(),options.getInt("inflight",30),options.getInt("min-inflight",1),
+        options.getInt("max-inflight",256),options.getInt("target-latency",2000) * 1000000L)
+        .withAdaptive(!"fixed".equals(options.get("concurrency","aimd")));
+    if ("async".equals(dispatch)) {
+      runAsync(uriBase,firstLoop,loops,latency,progress);
+    } else if ("writer".equals(dispatch)) {
+      runWriters(uriBase,firstLoop,loops,latency,progress);
+    } else {
+      runThreads(uriBase,firstLoop,loops,latency,progress);
+    }
+    limiter.awaitIdle();
+    if (null != retries) {
+      retries.awaitIdle();
+      System.out.println(getName() + ": " + retries.getFirstAttemptFailures() + " docs failed first time, " + retries.getRetriedItems()
+          + " resent in " + retries.getRetryRequests() + " requests, " + retries.getRecoveredItems() + " recovered, "
+          + retries.getDeadLetteredItems() + " dead letters");
+    }
+    System.out.println(getName() + ": in-flight limit finished at " + limiter.getLimit() + ", highest " + limiter.getHighest());
+    if (null != tuner) {
+      System.out.println(getName() + ": batch size " + tuner.getChosen() + ", tuning trace:");
+      List<String> trace = tuner.getTrace();
+      for (int t = 0;t < trace.size();t++) {
+        System.out.println("  " + trace.get(t));
+      }
+    }
+    // first attempts only: recoveries and dead letters are in the retry-* details
+    return progress.getDocs();
+  }
+
+  /**
+   * Builds every batch on this thread and hands each to applyAsync() once the
+   * limiter has room, so no thread waits on a response except the client's own.
+   */
+  void runAsync(String uriBase,int firstLoop,int loops,LatencyRecorder latency,Progress progress) throws InterruptedException {
+    BatchManager builder = clients.getMembers()[0].getBatches();
+    for (int i = firstLoop;i < firstLoop + loops;i++) {
+      System.out.println("Entering loop " + i + " of " + loops);
+      BatchManager.BatchRequest request = null;
+      int size = 0;
+      long bytes = 0;
+      int batchSplit = split;
+      for (int f = 0;f < content.size();f++) {
+        if (null == request) {
+          request = builder.newBatchRequest();
+          if (null != tuner) {
+            batchSplit = tuner.nextSplit();
+          }
+          size = 0;
+          bytes = 0;
+        }
+        request.withWrite(uriBase + i + "/" + f + ".xml",content.newHandle(f));
+        size++;
+        bytes += content.length(f);
+        if (size == batchSplit || f == content.size() - 1) {
+          limiter.acquire(); // wait for a completion to make room
+          ClientPool.Member member = clients.acquire();
+          Pending pending = new Pending(member,size,bytes,latency,progress);
+          if (null == retries) {
+            member.getBatches().applyAsync(request).whenComplete(pending);
+          } else {
+            member.getBatches().applyAsync(request,retries).whenComplete(pending);
+          }
+          request = null;
+        }
+      }
+    }
+  }
+
+  void runThreads(String uriBase,int firstLoop,int loops,LatencyRecorder latency,Progress progress) throws InterruptedException {
+    BatchListener listener = new BatchListener() {
+      public void applied(BatchWrapper wrapper,long nanos,boolean success) {
+        limiter.sample(nanos,success);
+      }
+      public void finished(BatchWrapper wrapper) {
+        limiter.release();
+      }
+    };
+    BatchWrapper batch;
+    for (int i = firstLoop;i < firstLoop + loops;i++) {
+      limiter.acquire(); // wait for a completion to make room
+      System.out.println("Entering loop " + i + " of " + loops);
+      batch = new BatchWrapper(clients,content,uriBase,i,latency);
+      batch.setListener(listener);
+      batch.setSplit(split);
+      batch.setTuner(tuner);
+      batch.setProgress(progress);
+      batch.setRetryPolicy(retries);
+      batch.start();
+    }
+  }
+
+  /**
+   * Writes every document on its own through BatchWriters, one per client, from
+   * --writer-threads threads sharing them. Each thread moves on to the next
+   * writer every batch-size documents, so batches fill as they would from a
+   * single feed. Closing the writers sends what is left and waits for it.
+   */
+  void runWriters(final String uriBase,final int firstLoop,final int loops,LatencyRecorder latency,Progress progress) throws InterruptedException {
+    ClientPool.Member[] members = clients.getMembers();
+    final BatchWriter[] writers = new BatchWriter[members.length];
+    for (int m = 0;m < members.length;m++) {
+      writers[m] = new BatchWriter(members[m].getBatches());
+      writers[m].setBatchSize(split);
+      writers[m].setBatchBytes(Long.parseLong(options.get("batch-bytes","0")));
+      writers[m].setLingerMillis(options.getInt("linger",1000));
+      writers[m].setListener(new Flushed(members[m],latency,progress));
+      writers[m].setRetryPolicy(retries);
+    }
+    final int threads = Math.max(1,Math.min(loops,options.getInt("writer-threads",1)));
+    Thread[] feeds = new Thread[threads];
+    for (int t = 0;t < threads;t++) {
+      final int thread = t;
+      feeds[t] = new Thread("batch-writer-feed-" + t) {
+        public void run() {
+          long written = 0;
+          for (int i = firstLoop + thread;i < firstLoop + loops;i += threads) {
+            System.out.println("Entering loop " + i + " of " + loops);
+            for (int f = 0;f < content.size();f++) {
+              BatchWriter writer = writers[(int) ((written++ / split + thread) % writers.length)];
+              writer.write(uriBase + i + "/" + f + ".xml",content.newHandle(f),content.length(f));
+            }
+          }
+        }
+      };
+      feeds[t].start();
+    }
+    for (int t = 0;t < threads;t++) {
+      feeds[t].join();
+    }
+    for (int m = 0;m < writers.length;m++) {
+      writers[m].close();
+    }
+    writerFlushes = new long[BatchWriter.FlushTrigger.values().length];
+    for (int m = 0;m < writers.length;m++) {
+      for (int f = 0;f < writerFlushes.length;f++) {
+        writerFlushes[f] += writers[m].getFlushCount(BatchWriter.FlushTrigger.values()[f]);
+      }
+    }
+  }
+
+  /**
+   * Counts each batch a BatchWriter sends, on the client's I/O thread.
+   */
+  class Flushed implements BatchWriter.FlushListener {
+    ClientPool.Member member;
+    LatencyRecorder latency;
+    Progress progress;
+
+    Flushed(ClientPool.Member member,LatencyRecorder latency,Progress progress) {
+      this.member = member;
+      this.latency = latency;
+      this.progress = progress;
+    }
+
+    public void flushed(BatchManager.BatchRequest request,int documents,long bytes,long nanos,BatchManager.BatchResponse response) {
+      latency.record(nanos);
+      int failed = response.getFailedUris().size();
+      clients.record(member,documents - failed,response.getSuccess());
+      firstAttempt(progress,documents,bytes,failed);
+    }
+
+    public void failed(BatchManager.BatchRequest request,int documents,long bytes,long nanos,Throwable failure) {
+      failure.printStackTrace(System.out);
+      clients.record(member,0,false);
+      progress.failed(documents);
+    }
+  }
+
+  /**
+   * Everything that happens when one applyAsync() batch finishes, on the
+   * client's I/O thread.
+   */
+  class Pending implements BiConsumer<BatchManager.BatchResponse,Throwable> {
+    ClientPool.Member member;
+    int size;
+    long bytes;
+    LatencyRecorder latency;
+    Progress progress;
+    long start = System.nanoTime();
+
+    Pending(ClientPool.Member member,int size,long bytes,LatencyRecorder latency,Progress progress) {
+      this.member = member;
+      this.size = size;
+      this.bytes = bytes;
+      this.latency = latency;
+      this.progress = progress;
+    }
+
+    public void accept(BatchManager.BatchResponse response,Throwable failure) {
+      long nanos = System.nanoTime() - start;
+      boolean success = (null == failure) && response.getSuccess();
+      int failed = (null == failure) ? response.getFailedUris().size() : size;
+      try {
+        if (null != failure) {
+          failure.printStackTrace(System.out);
+        } else {
+          latency.record(nanos);
+          // nothing to read back from a batch of writes, so free its connection
+          response.close();
+        }
+        if (null != tuner) {
+          tuner.applied(size,bytes,nanos);
+        }
+        limiter.sample(nanos,success);
+        clients.release(member,size - failed,success);
+        firstAttempt(progress,size,bytes,failed);
+      } finally {
+        // anything thrown here would vanish into the future, so never skip this
+        limiter.release();
+      }
+    }
+  }
+
+  /**
+   * Counts the documents of a batch that were written the first time, and
+   * those left to the retry policy, sharing the bytes out between them.
+   */
+  static void firstAttempt(Progress progress,int size,long bytes,int failed) {
+    if (failed < size) {
+      progress.completed(size - failed,bytes * (size - failed) / size);
+    }
+    if (failed > 0) {
+      progress.failed(failed);
+    }
+  }
+
+  public void addDetails(BenchmarkResult result) {
+    result.setDetail("content",content.getMode());
+    result.setDetail("dispatch",dispatch);
+    if (null != writerFlushes) {
+      for (int f = 0;f < writerFlushes.length;f++) {
+        result.setDetail("flushes-" + BatchWriter.FlushTrigger.values()[f].name().toLowerCase(),writerFlushes[f]);
+      }
+    }
+    result.setDetail("inflight-limit",limiter.getLimit());
+    result.setDetail("inflight-highest",limiter.getHighest());
+    result.setDetail("batch-size",(null == tuner) ? split : tuner.getChosen());
+    clients.addDetails(result);
+    if (null != retries) {
+      result.setDetail("retry-first-attempt-failed-docs",retries.getFirstAttemptFailures());
+      result.setDetail("retry-requests",retries.getRetryRequests());
+      result.setDetail("retry-docs",retries.getRetriedItems());
+      result.setDetail("retry-recovered-docs",retries.getRecoveredItems());
+      result.setDetail("retry-dead-letter-docs",retries.getDeadLetteredItems());
+    }
+    if (null != tuner) {
+      List<String> trace = tuner.getTrace();
+      for (int t = 0;t < trace.size();t++) {
+        result.setDetail("batch-size-trace-" + t,trace.get(t));
+      }
+    }
+  }
+
+  public void tearDown() {
+    if (null != deadLetters) {
+      deadLetters.close();
+    }
+    clients.release();
+  }
 
-public class RESTBatch {
   /**
    * 0 - hostname
    * 1 - port
@@ -23,86 +401,13 @@ public class RESTBatch {
       System.out.println("ARG " + i + ":" + args[i].toString());
     }
     try {
-      
-      // load all files in a directory
-      File dir = new File(args[2]);
-      File files[] = dir.listFiles(new FolderFilter());
-      System.out.println("Got " + files.length + " files");
-      
-      // hold file content in memory between adds (faster, less disc io)
-      
-      DatabaseClient client = DatabaseClientFactory.newClient(args[0], Integer.parseInt(args[1]), "admin", "admin", Authentication.DIGEST);
-      /*
-      DatabaseClient[] clients = new DatabaseClient[10];
-      BatchManager[] managers = new BatchManager[10];
-      for (int i = 0;i < 10;i++) {
-        clients[i] = DatabaseClientFactory.newClient(args[0], Integer.parseInt(args[1]), "admin", "admin", Authentication.DIGEST);
-        managers[i] = new BatchManager(clients[i]); // both parallelised with 10 connections - should use multiple cores on server side
-      }*/
-      // create the batch manager
-      BatchManager manager = new BatchManager(client);
-      
-      String xml[] = new String[files.length];
-      StringBuffer sb;
-      char[] buffer = new char[1024];
-      int len;
-      BufferedReader r;
-      for (int i = 0;i < files.length;i++) {
-        sb = new StringBuffer();
-        r = new BufferedReader(new FileReader(files[i]));
-        while (-1 != (len = r.read(buffer))) {
-          sb.append(buffer, 0, len);
-        }
-        xml[i] = sb.toString();
-        r.close();
-      }
-      System.out.println("XML files length: " + xml.length);
-      
-      System.out.println("Using Erik's REST Batch Extension to add " + files.length + " files " + args[3] + " times.");
-
-      String uriBase = "/performance/restbatch/";
-      int loops = Integer.parseInt(args[3]);
-      //int choice;
-      //BatchManager.BatchRequest request;
-      //BatchWrapper bw;
-      int dc;
-      BatchWrapper[] batches = new BatchWrapper[loops];
-      for (int i = 0;i < loops;i++) {
-        System.out.println("Entering loop " + i + " of " + args[3]);
-        // build URIs
-
-        //choice = (int)Math.floor(Math.random() * 10);
-        
-        batches[i] = new BatchWrapper(manager,xml,uriBase,i);
-        batches[i].start();
-
-        do {
-          dc = 0;
-          for (int j = 0;j <= i;j++) {
-            if (batches[j].done()) {
-              dc++;
-            }
-          }
-          if ((i - dc) >= 30) {
-            Thread.sleep(200);
-          }
-        } while ((i - dc) >= 30);
-        /*if (0 == i % 20) {
-          Thread.sleep(5000);
-        }*/
-      }
-      
-      boolean done = false;
-      while (!done) {
-        done = true;
-        for (int i = 0;i < loops && done;i++) {
-          done = done & batches[i].done();
-        }
-        Thread.sleep(200);
-      }
+      BenchmarkOptions options = BenchmarkOptions.parse(args);
+      options.set("host",options.getPositional(0)).set("restport",options.getPositional(1))
+          .set("corpus",options.getPositional(2)).set("loops",options.getPositional(3))
+          .set("strategies","rest-batch");
+      List<IngestStrategy> strategies = IngestDriver.createStrategies(options);
+      IngestDriver.run(options,strategies);
 
-      //client.release();
-      
       System.out.println("Done.");
       System.exit(0);
     } catch (Exception e) {
@@ -0,0 +1,136 @@
+package com.marklogic.adamfowler.performance;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+
+import com.marklogic.client.io.BytesHandle;
+import com.marklogic.client.io.Format;
+import com.marklogic.client.io.InputStreamHandle;
+import com.marklogic.client.io.StringHandle;
+import com.marklogic.client.io.marker.AbstractWriteHandle;
+import com.marklogic.client.io.marker.XMLWriteHandle;
+
+/**
+ * The corpus as the REST strategies send it. By default each document is
+ * held as its raw UTF-8 bytes and sent through a BytesHandle, so it is never
+ * decoded to a String or re-encoded on the way out. --content=string keeps the
+ * old StringHandle path so the two can be compared; the driver reports the
+ * process CPU time and heap of each run.
+ *
+ * --sanitize=true streams each document through a SanitizingInputStream
+ * instead, stripping invalid characters and the XML declaration on the way
+ * out so the corpus does not need a prepxml.sh pass first.
+ *
+ * A packed corpus is never copied onto the heap: each document is streamed
+ * from its slice of the mapping through an InputStreamHandle. Only folder
+ * corpora are held as byte arrays, and --content=string decodes every
+ * document up front, generated or packed.
+ */
+public class RESTContent {
+  String mode;
+  boolean sanitize;
+  Corpus streamed = null;
+  byte[][] bytes = null;
+  String[] xml = null;
+
+  public static RESTContent from(BenchmarkOptions options,Corpus corpus) throws java.io.IOException {
+    RESTContent content = new RESTContent();
+    content.mode = options.get("content","bytes");
+    content.sanitize = Boolean.parseBoolean(options.get("sanitize","false"));
+    if ("bytes".equals(content.mode) && corpus.isStreamable()) {
+      content.streamed = corpus;
+    } else if ("bytes".equals(content.mode)) {
+      content.bytes = corpus.getBytes();
+    } else if ("string".equals(content.mode)) {
+      if (content.sanitize) {
+        throw new IllegalArgumentException("--sanitize=true needs --content=bytes");
+      }
+      content.xml = corpus.getXml();
+    } else {
+      throw new IllegalArgumentException("Unknown content: " + content.mode);
+    }
+    return content;
+  }
+
+  /**
+   * Whether each handle can only be sent once, as a stream is, so a resend
+   * needs reopen().
+   */
+  public boolean isSingleUse() {
+    return sanitize || null != streamed;
+  }
+
+  public String getMode() {
+    String described = (null != streamed) ? mode + "-streamed" : mode;
+    return sanitize ? described + "-sanitized" : described;
+  }
+
+  public int size() {
+    if (null != streamed) {
+      return streamed.size();
+    }
+    return (null != bytes) ? bytes.length : xml.length;
+  }
+
+  /**
+   * The size of document i as sent, in bytes (characters for strings).
+   */
+  public int length(int i) {
+    if (null != streamed) {
+      try {
+        return streamed.length(i);
+      } catch (IOException ioe) {
+        throw new UncheckedIOException(ioe);
+      }
+    }
+    return (null != bytes) ? bytes[i].length : xml[i].length();
+  }
+
+  /**
+   * A new handle for document i. Handles are cheap wrappers, but not safe to
+   * share between concurrent requests, so each write gets its own.
+   */
+  public XMLWriteHandle newHandle(int i) {
+    if (null != streamed) {
+      InputStream in;
+      try {
+        in = new ByteBufferInputStream(streamed.getBuffer(i));
+      } catch (IOException ioe) {
+        throw new UncheckedIOException(ioe);
+      }
+      return new DocumentStreamHandle(i).withFormat(Format.XML).with(sanitize ? new SanitizingInputStream(in) : in);
+    }
+    if (sanitize) {
+      return new DocumentStreamHandle(i).withFormat(Format.XML).with(new SanitizingInputStream(new ByteArrayInputStream(bytes[i])));
+    }
+    if (null != bytes) {
+      return new BytesHandle().withFormat(Format.XML).with(bytes[i]);
+    }
+    return new StringHandle().withFormat(Format.XML).with(xml[i]);
+  }
+
+  /**
+   * A fresh handle for the document a stream handle from newHandle() was
+   * read from, or null if the handle did not come from here.
+   */
+  public XMLWriteHandle reopen(AbstractWriteHandle used) {
+    if (used instanceof DocumentStreamHandle) {
+      return newHandle(((DocumentStreamHandle) used).index);
+    }
+    return null;
+  }
+
+  /**
+   * Remembers which document it streams, so a resend can open it again
+   * without working the index out from the URI.
+   */
+  static class DocumentStreamHandle extends InputStreamHandle {
+    int index;
+
+    DocumentStreamHandle(int index) {
+      this.index = index;
+    }
+  }
+}
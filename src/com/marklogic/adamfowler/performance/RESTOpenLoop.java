@@ -0,0 +1,168 @@
+package com.marklogic.adamfowler.performance;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The rest-open strategy: an open-loop load generator. Document n is due to be
+ * sent at start + n / rate whatever the server is doing, released on time by a
+ * TimerWheel. The closed-loop strategies send less when the server slows down
+ * and so under-report latency. Here latency is measured from each document's
+ * intended send time, so time spent waiting for a free sender counts against
+ * the server just as a real client would see it.
+ *
+ * --rate=N     target documents per second (required)
+ * --content=bytes|string  send raw bytes (default) or decoded strings, see RESTContent
+ * --workers=N  sending threads (default 200). Too few and the send rate falls
+ *              behind the target, which the report shows as send lag.
+ * --hosts=h1,h2 --connections-per-host=N --select=...  see ClientPool
+ */
+public class RESTOpenLoop implements IngestStrategy {
+  BenchmarkOptions options;
+  ClientPool clients;
+  RESTContent content;
+  double achievedRate;
+  LatencyRecorder sendLag;
+
+  public String getName() {
+    return "rest-open";
+  }
+
+  public void setUp(BenchmarkOptions options,Corpus corpus) throws Exception {
+    this.options = options;
+    content = RESTContent.from(options,corpus);
+    clients = ClientPool.from(options);
+  }
+
+  public long run(String uriBase,int firstLoop,int loops,LatencyRecorder latency,Progress progress) throws Exception {
+    int rate = Integer.parseInt(options.get("rate"));
+    int workers = options.getInt("workers",200);
+    long total = (long) loops * content.size();
+    System.out.println("Using REST /v1/documents open loop at " + rate + " docs/sec with " + workers + " senders to add " + content.size() + " files " + loops + " times.");
+
+    clients.reset();
+    ExecutorService senders = Executors.newFixedThreadPool(workers);
+    TimerWheel wheel = new TimerWheel(1000000L,1024,senders);
+    SendStats stats = new SendStats(total);
+    double intervalNanos = 1000000000.0 / rate;
+    long lead = wheel.getHorizonNanos() / 2;
+
+    wheel.start();
+    long start = System.nanoTime() + 10000000L; // give the wheel a head start
+    long n = 0;
+    for (int i = firstLoop;i < firstLoop + loops;i++) {
+      System.out.println("Entering loop " + i + " of " + loops);
+      for (int f = 0;f < content.size();f++,n++) {
+        long intended = start + (long) (n * intervalNanos);
+        long wait;
+        // stay within the wheel's horizon rather than queueing the whole run up front
+        while ((wait = intended - lead - System.nanoTime()) > 0) {
+          LockSupport.parkNanos(wait);
+        }
+        wheel.schedule(new Send(uriBase + i + "/" + f,f,intended,latency,stats,progress),intended);
+      }
+    }
+    stats.awaitFinished();
+    wheel.stop();
+    senders.shutdown();
+
+    double seconds = (stats.lastSend.get() - stats.firstSend.get()) / 1000000000.0;
+    double achieved = (seconds > 0) ? (total - 1) / seconds : 0.0;
+    System.out.println(String.format("rest-open: target %d docs/sec, achieved send rate %.1f docs/sec (%.1f%% of target)",
+        rate,achieved,100.0 * achieved / rate));
+    System.out.println("rest-open: send lag behind intended time " + stats.lag.summary());
+    achievedRate = achieved;
+    sendLag = stats.lag;
+    if (stats.failed.get() > 0) {
+      System.out.println("Failed writes: " + stats.failed.get());
+    }
+    return total - stats.failed.get();
+  }
+
+  public void addDetails(BenchmarkResult result) {
+    result.setDetail("content",content.getMode());
+    result.setDetail("target-rate",options.get("rate"));
+    result.setDetail("workers",options.getInt("workers",200));
+    result.setDetail("achieved-send-rate",String.format("%.1f",achievedRate));
+    result.setDetail("send-lag",sendLag.summary());
+    clients.addDetails(result);
+  }
+
+  public void tearDown() {
+    clients.release();
+  }
+
+  static class SendStats {
+    LatencyRecorder lag = new LatencyRecorder();
+    AtomicLong firstSend = new AtomicLong(Long.MAX_VALUE);
+    AtomicLong lastSend = new AtomicLong(Long.MIN_VALUE);
+    AtomicLong failed = new AtomicLong();
+    // a long, as loops times a large corpus can pass what an int (or a CountDownLatch) can count
+    long unfinished;
+
+    SendStats(long total) {
+      unfinished = total;
+    }
+
+    synchronized void finished() {
+      if (--unfinished == 0) {
+        notifyAll();
+      }
+    }
+
+    synchronized void awaitFinished() throws InterruptedException {
+      while (unfinished > 0) {
+        wait();
+      }
+    }
+
+    void sent(long intended,long actual) {
+      lag.record(actual - intended);
+      long seen;
+      while (actual < (seen = firstSend.get()) && !firstSend.compareAndSet(seen,actual)) {
+        // lost a race with another sender, try again
+      }
+      while (actual > (seen = lastSend.get()) && !lastSend.compareAndSet(seen,actual)) {
+        // lost a race with another sender, try again
+      }
+    }
+  }
+
+  class Send implements Runnable {
+    String uri;
+    int document;
+    long intended;
+    LatencyRecorder latency;
+    SendStats stats;
+    Progress progress;
+
+    Send(String uri,int document,long intended,LatencyRecorder latency,SendStats stats,Progress progress) {
+      this.uri = uri;
+      this.document = document;
+      this.intended = intended;
+      this.latency = latency;
+      this.stats = stats;
+      this.progress = progress;
+    }
+
+    public void run() {
+      stats.sent(intended,System.nanoTime());
+      ClientPool.Member member = clients.acquire();
+      try {
+        member.documents.write(uri,content.newHandle(document));
+        latency.record(System.nanoTime() - intended);
+        progress.completed(1,content.length(document));
+        clients.release(member,1,true);
+      } catch (Exception e) {
+        clients.release(member,0,false);
+        stats.failed.incrementAndGet();
+        progress.failed(1);
+        e.printStackTrace(System.out);
+      } finally {
+        stats.finished();
+      }
+    }
+  }
+}
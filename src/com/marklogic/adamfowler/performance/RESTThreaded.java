@@ -1,21 +1,119 @@
 package com.marklogic.adamfowler.performance;
 
-import java.io.BufferedReader;
-import java.io.File;
-import java.io.FileReader;
+import java.util.List;
 
-import com.marklogic.client.DatabaseClient;
-import com.marklogic.client.DatabaseClientFactory;
-import com.marklogic.client.DatabaseClientFactory.Authentication;
-import com.marklogic.client.document.XMLDocumentManager;
+/**
+ * The rest-single strategy: every document is its own /v1/documents PUT.
+ *
+ * --executor=thread (default) starts one UploadWrapper thread per document
+ * --executor=pool   writes through an UploadPool of fixed size
+ * --executor=virtual runs each write on a virtual thread (Java 21+)
+ * --executor=pool,virtual runs each listed executor in turn over the same
+ *                   corpus so their results appear side by side
+ * --workers=N       pool worker count (default 10)
+ * --queue=N         pool queue size (default 1000)
+ * --inflight=N      most concurrent virtual thread writes (default 10000)
+ * --content=bytes|string  send raw bytes (default) or decoded strings, see RESTContent
+ * --hosts=h1,h2 --connections-per-host=N --select=round-robin|least-outstanding|random
+ *                   spread writes over several hosts and clients, see ClientPool
+ */
+public class RESTThreaded implements IngestStrategy {
+  String executor;
+  boolean qualifyName;
+  BenchmarkOptions options;
+  ClientPool clients;
+  RESTContent content;
+
+  public RESTThreaded(String executor,boolean qualifyName) {
+    this.executor = executor;
+    this.qualifyName = qualifyName;
+  }
+
+  public String getName() {
+    // a comparison run gives each executor its own name, and so its own URIs
+    return qualifyName ? "rest-single-" + executor : "rest-single";
+  }
+
+  public void setUp(BenchmarkOptions options,Corpus corpus) throws Exception {
+    this.options = options;
+    // hold file content in memory between adds (faster, less disc io)
+    content = RESTContent.from(options,corpus);
+    clients = ClientPool.from(options); // parallelised over hosts and connections - should use multiple cores on server side
+  }
+
+  public long run(String uriBase,int firstLoop,int loops,LatencyRecorder latency,Progress progress) throws Exception {
+    clients.reset();
+    if ("thread".equals(executor)) {
+      System.out.println("Using REST /v1/documents in parallel to add " + content.size() + " files " + loops + " times.");
+      Rendezvous rv;
+      UploadWrapper wrapper;
+      for (int i = firstLoop;i < firstLoop + loops;i++) {
+        rv = new Rendezvous(content.size());
+        System.out.println("Entering loop " + i + " of " + loops);
+        // build URIs
+        for (int f = 0;f < content.size();f++) {
+          wrapper = new UploadWrapper(clients,uriBase + i + "/" + f,content.newHandle(f),content.length(f),rv,latency,progress); // client chosen by the pool
+          wrapper.start(); // add content individually, in parallel on client via threads
+        }
+
+        // wait for rendezvous
+        while (!rv.done()) {
+          Thread.sleep(500);
+        }
+      }
+      // only the writes that succeeded, as the uploaders report
+      return progress.getDocs();
+    }
+
+    Uploader uploader;
+    if ("pool".equals(executor)) {
+      int workers = options.getInt("workers",10);
+      System.out.println("Using REST /v1/documents with a pool of " + workers + " workers to add " + content.size() + " files " + loops + " times.");
+      uploader = new UploadPool(clients,workers,options.getInt("queue",1000),latency,progress);
+    } else if ("virtual".equals(executor)) {
+      int inFlight = options.getInt("inflight",10000);
+      System.out.println("Using REST /v1/documents on virtual threads, at most " + inFlight + " in flight, to add " + content.size() + " files " + loops + " times.");
+      uploader = new VirtualUploader(clients,inFlight,latency,progress);
+    } else {
+      throw new IllegalArgumentException("Unknown executor: " + executor);
+    }
+    uploader.start();
+    for (int i = firstLoop;i < firstLoop + loops;i++) {
+      System.out.println("Entering loop " + i + " of " + loops);
+      for (int f = 0;f < content.size();f++) {
+        uploader.submit(uriBase + i + "/" + f,content.newHandle(f),content.length(f)); // blocks once the uploader is full
+      }
+    }
+    uploader.shutdown();
+    if (uploader.getFailed() > 0) {
+      System.out.println("Failed writes: " + uploader.getFailed());
+    }
+    return uploader.getCompleted();
+  }
+
+  public void addDetails(BenchmarkResult result) {
+    result.setDetail("executor",executor);
+    result.setDetail("content",content.getMode());
+    clients.addDetails(result);
+    if ("pool".equals(executor)) {
+      result.setDetail("workers",options.getInt("workers",10));
+    } else if ("virtual".equals(executor)) {
+      result.setDetail("inflight",options.getInt("inflight",10000));
+    }
+  }
+
+  public void tearDown() {
+    clients.release();
+  }
 
-public class RESTThreaded {
   /**
    * 0 - hostname
    * 1 - port
    * 2 - folderPath
    * 3 - times repeat
-   * 
+   *
+   * Any --name=value options after these are passed on, see the class comment.
+   *
    * @param args
    */
   public static void main(String args[]) {
@@ -23,68 +121,13 @@ public class RESTThreaded {
       System.out.println("ARG " + i + ":" + args[i].toString());
     }
     try {
-      
-      // load all files in a directory
-      File dir = new File(args[2]);
-      File files[] = dir.listFiles(new FolderFilter());
-      
-      // hold file content in memory between adds (faster, less disc io)
-      
-      DatabaseClient client = DatabaseClientFactory.newClient(args[0], Integer.parseInt(args[1]), "admin", "admin", Authentication.DIGEST);
-      /*
-      DatabaseClient[] clients = new DatabaseClient[10];
-      XMLDocumentManager[] managers = new XMLDocumentManager[10];
-      for (int i = 0;i < 10;i++) {
-        clients[i] = DatabaseClientFactory.newClient(args[0], Integer.parseInt(args[1]), "admin", "admin", Authentication.DIGEST);
-        managers[i] = clients[i].newXMLDocumentManager(); // both parallelised with 10 connections - should use multiple cores on server side
-      }
-      */
-      XMLDocumentManager manager = client.newXMLDocumentManager();
-      
-      String xml[] = new String[files.length];
-      StringBuffer sb;
-      char[] buffer = new char[1024];
-      int len;
-      BufferedReader r;
-      for (int i = 0;i < files.length;i++) {
-        sb = new StringBuffer();
-        r = new BufferedReader(new FileReader(files[i]));
-        while (-1 != (len = r.read(buffer))) {
-          sb.append(buffer, 0, len);
-        }
-        xml[i] = sb.toString();
-        r.close();
-      }
-      
-      //XMLDocumentManager docMgr = client.newXMLDocumentManager();
-      
-      System.out.println("Using REST /v1/documents in parallel to add " + files.length + " files " + args[3] + " times.");
+      BenchmarkOptions options = BenchmarkOptions.parse(args);
+      options.set("host",options.getPositional(0)).set("restport",options.getPositional(1))
+          .set("corpus",options.getPositional(2)).set("loops",options.getPositional(3))
+          .set("strategies","rest-single");
+      List<IngestStrategy> strategies = IngestDriver.createStrategies(options);
+      IngestDriver.run(options,strategies);
 
-      String uriBase = "/performance/restfast/";
-      int loops = Integer.parseInt(args[3]);
-      Rendezvous rv;
-      //int choice;
-      UploadWrapper wrapper;
-      for (int i = 0;i < loops;i++) {
-        rv = new Rendezvous(files.length);
-        System.out.println("Entering loop " + i + " of " + args[3]);
-        // build URIs
-        for (int f = 0;f < files.length;f++) {
-          //choice = (int)Math.floor(Math.random() * 10.0);
-          //System.out.println("Using client " + choice);
-          //wrapper = new UploadWrapper(clients[choice],managers[choice],uriBase + i + "/" + f,xml[f],rv); // random client connection
-          wrapper = new UploadWrapper(client,manager,uriBase + i + "/" + f,xml[f],rv); // random client connection
-          wrapper.start(); // add content individually, in parallel on client via threads
-        }
-        
-        // wait for rendezvous
-        while (!rv.done()) {
-          Thread.sleep(500);
-        }
-      }
-      
-      //client.release(); // let client die when JVM exits as we're not monitoring thread state
-      
       System.out.println("Done.");
       System.exit(0);
     } catch (Exception e) {
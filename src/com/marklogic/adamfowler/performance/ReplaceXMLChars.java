@@ -1,70 +1,170 @@
 package com.marklogic.adamfowler.performance;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
-import java.io.FileWriter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * Strips characters XML does not allow, and the XML declaration, from every
+ * document beneath a folder, in place. Files are streamed through an
+ * XMLSanitizer in a fixed buffer as UTF-8 bytes, spread over a fork-join
+ * pool, and each is replaced atomically by renaming a temp file over it.
+ * Files that need no change are left untouched.
+ */
 public class ReplaceXMLChars {
+  static final int BUFFER_SIZE = 65536;
+  static final int FILES_PER_TASK = 64;
+
+  AtomicLong changed = new AtomicLong();
+  AtomicLong removed = new AtomicLong();
+  AtomicLong failed = new AtomicLong();
 
   /**
+   * 0 - folderPath
+   * 1 - threads (optional, default one per core)
+   *
    * @param args
    */
   public static void main(String[] args) {
     try {
-      File dir = new File(args[0]);
-      File[] files = dir.listFiles(new FolderFilter());
-      /*String pattern = "[^" 
-          + "\u0001-\uD7FF" 
-          + "\uE000-\uFFFD"
-          + "\ud800\udc00-\udbff\udfff" 
-          + "]+";
-      */
-      String entire;
-      StringBuffer sb;
-      BufferedReader r;
-      FileWriter writer;
-      char[] buffer = new char[1024];
-      int len;
-      for (int i = 0;i < files.length;i++) {
-        System.out.println("Processing " + files[i].getName());
-        sb = new StringBuffer();
-        r = new BufferedReader(new FileReader(files[i]));
-        while (-1 != (len = r.read(buffer))) {
-          sb.append(buffer, 0, len);
+      List<File> files = new ArrayList<File>();
+      CorpusPacker.collect(new File(args[0]),files);
+      int threads = (args.length > 1) ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+      System.out.println("Sanitizing " + files.size() + " files with " + threads + " threads");
+
+      long start = System.currentTimeMillis();
+      ReplaceXMLChars replacer = new ReplaceXMLChars();
+      replacer.sanitizeAll(files,threads);
+      System.out.println("Changed " + replacer.changed.get() + " of " + files.size() + " files, removing " + replacer.removed.get()
+          + " characters, in " + (System.currentTimeMillis() - start) + " ms");
+      if (replacer.failed.get() > 0) {
+        System.out.println("Failed files: " + replacer.failed.get());
+        System.exit(-1);
+      }
+    } catch (Exception e) {
+      e.printStackTrace(System.out);
+      System.exit(-1);
+    }
+  }
+
+  public void sanitizeAll(List<File> files,int threads) {
+    ForkJoinPool pool = new ForkJoinPool(threads);
+    try {
+      pool.invoke(new SanitizeFiles(files,0,files.size()));
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  /**
+   * Rewrites one file, returning true if it changed.
+   */
+  public boolean sanitize(File file,byte[] in,byte[] out) throws IOException {
+    // a fixed prefix, as createTempFile() rejects one under three characters
+    File temp = File.createTempFile("sanitize",".tmp",file.getParentFile());
+    long read = 0;
+    long written = 0;
+    XMLSanitizer sanitizer = new XMLSanitizer();
+    try {
+      InputStream is = new FileInputStream(file);
+      try {
+        OutputStream os = new FileOutputStream(temp);
+        try {
+          int len;
+          while (-1 != (len = is.read(in))) {
+            read += len;
+            int n = sanitizer.filter(in,0,len,out,0);
+            os.write(out,0,n);
+            written += n;
+          }
+          int n = sanitizer.finish(out,0);
+          os.write(out,0,n);
+          written += n;
+        } finally {
+          os.close();
         }
-        entire = sb.toString();
+      } finally {
+        is.close();
+      }
+      // the sanitizer only ever drops or shortens, so the same length means the same bytes
+      if (written == read) {
+        return false;
+      }
+      try {
+        Files.move(temp.toPath(),file.toPath(),StandardCopyOption.ATOMIC_MOVE,StandardCopyOption.REPLACE_EXISTING);
+      } catch (AtomicMoveNotSupportedException amnse) {
+        Files.move(temp.toPath(),file.toPath(),StandardCopyOption.REPLACE_EXISTING);
+      }
+      removed.addAndGet(sanitizer.getRemoved());
+      changed.incrementAndGet();
+      return true;
+    } finally {
+      if (temp.exists()) {
+        temp.delete();
+      }
+    }
+  }
+
+  /**
+   * Splits the file list in halves until each piece is small enough to do on one thread.
+   */
+  class SanitizeFiles extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
 
-        entire = entire.replace("<?xml version=\"1.0\" encoding=\"UTF-8\"?>","");
-        entire = stripNonValidXMLCharacters(entire);
-        //entire = entire.replace("&","&amp;");
-        //entire = entire.replace("%","");
+    List<File> files;
+    int from;
+    int to;
 
-        writer = new FileWriter(files[i]);
-        writer.write(entire);
-        writer.flush();
-        writer.close();
+    SanitizeFiles(List<File> files,int from,int to) {
+      this.files = files;
+      this.from = from;
+      this.to = to;
+    }
+
+    protected void compute() {
+      if (to - from > FILES_PER_TASK) {
+        int middle = (from + to) >>> 1;
+        invokeAll(new SanitizeFiles(files,from,middle),new SanitizeFiles(files,middle,to));
+        return;
+      }
+      byte[] in = new byte[BUFFER_SIZE];
+      byte[] out = new byte[BUFFER_SIZE + XMLSanitizer.MAX_CARRY];
+      for (int f = from;f < to;f++) {
+        try {
+          sanitize(files.get(f),in,out);
+        } catch (IOException ioe) {
+          failed.incrementAndGet();
+          System.out.println("Could not sanitize " + files.get(f) + ": " + ioe);
+        }
       }
-    } catch (Exception e) {
-      e.printStackTrace();
     }
   }
 
   public static String stripNonValidXMLCharacters(String in) {
-    StringBuffer out = new StringBuffer(); // Used to hold the output.
-    char current; // Used to reference the current character.
-
     if (in == null || ("".equals(in))) return ""; // vacancy test.
-    for (int i = 0; i < in.length(); i++) {
-        current = in.charAt(i); // NOTE: No IndexOutOfBoundsException caught here; it should not happen.
-        if ((current == 0x9) ||
-            (current == 0xA) ||
-            (current == 0xD) ||
-            ((current >= 0x20) && (current <= 0xD7FF)) ||
-            ((current >= 0xE000) && (current <= 0xFFFD)) ||
-            ((current >= 0x10000) && (current <= 0x10FFFF)))
-            out.append(current);
+    StringBuilder out = new StringBuilder(in.length());
+    int current;
+    for (int i = 0;i < in.length();i += Character.charCount(current)) {
+      current = in.codePointAt(i); // whole supplementary characters, not their surrogate halves
+      if ((current == 0x9) ||
+          (current == 0xA) ||
+          (current == 0xD) ||
+          ((current >= 0x20) && (current <= 0xD7FF)) ||
+          ((current >= 0xE000) && (current <= 0xFFFD)) ||
+          ((current >= 0x10000) && (current <= 0x10FFFF)))
+        out.appendCodePoint(current);
     }
     return out.toString();
-}  
+  }
 }
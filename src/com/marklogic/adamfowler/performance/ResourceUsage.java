@@ -0,0 +1,64 @@
+package com.marklogic.adamfowler.performance;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.List;
+
+/**
+ * A snapshot of this JVM's CPU time, garbage collection and heap, so the
+ * client-side cost of a strategy can be reported next to its throughput. Take
+ * one before and one after the measured window and call addDifference().
+ * Taking a snapshot restarts the heap pools' peak tracking, so the later one
+ * holds the peak over the window, including garbage collected within it.
+ */
+public class ResourceUsage {
+  long cpuNanos = -1;
+  long gcMillis;
+  long gcCount;
+  long heapPeak;
+
+  public static ResourceUsage sample() {
+    ResourceUsage usage = new ResourceUsage();
+    OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+    if (os instanceof com.sun.management.OperatingSystemMXBean) {
+      usage.cpuNanos = ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuTime();
+    }
+    List<GarbageCollectorMXBean> collectors = ManagementFactory.getGarbageCollectorMXBeans();
+    for (int c = 0;c < collectors.size();c++) {
+      usage.gcMillis += Math.max(0,collectors.get(c).getCollectionTime());
+      usage.gcCount += Math.max(0,collectors.get(c).getCollectionCount());
+    }
+    // each pool peaks at its own moment, so the sum is an upper bound on the true peak
+    List<MemoryPoolMXBean> pools = ManagementFactory.getMemoryPoolMXBeans();
+    for (int p = 0;p < pools.size();p++) {
+      if (MemoryType.HEAP == pools.get(p).getType() && pools.get(p).isValid()) {
+        usage.heapPeak += pools.get(p).getPeakUsage().getUsed();
+        pools.get(p).resetPeakUsage();
+      }
+    }
+    return usage;
+  }
+
+  /**
+   * Heap still in use after a full collection, i.e. what the strategy holds
+   * on to (mostly its copy of the corpus) rather than garbage in flight.
+   */
+  public static long retainedHeap() {
+    System.gc();
+    return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+  }
+
+  public void addDifference(ResourceUsage end,BenchmarkResult result) {
+    if (cpuNanos >= 0 && end.cpuNanos >= 0) {
+      long cpuMillis = (end.cpuNanos - cpuNanos) / 1000000;
+      result.setDetail("client-cpu-ms",cpuMillis);
+      result.setDetail("client-cpu-us-per-doc",(0 == result.getDocs()) ? 0 : cpuMillis * 1000 / result.getDocs());
+    }
+    result.setDetail("gc-count",end.gcCount - gcCount);
+    result.setDetail("gc-ms",end.gcMillis - gcMillis);
+    result.setDetail("heap-peak-mb",end.heapPeak / (1024 * 1024));
+  }
+}
@@ -0,0 +1,122 @@
+package com.marklogic.adamfowler.performance;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compares the latest run in two ResultLog files strategy by strategy, and
+ * flags any strategy whose throughput fell, or whose p99 latency rose, by
+ * more than a threshold. Exits with 1 if anything regressed, so it can gate
+ * a script.
+ */
+public class ResultCompare {
+  /**
+   * 0 - baseline results file
+   * 1 - candidate results file
+   *
+   * --threshold=PCT       allowed change before flagging, in percent (default 5)
+   * --p99-threshold=PCT   separate allowance for p99 latency (default --threshold)
+   *
+   * @param args
+   */
+  public static void main(String args[]) {
+    try {
+      BenchmarkOptions options = BenchmarkOptions.parse(args);
+      double threshold = Double.parseDouble(options.get("threshold","5"));
+      double p99Threshold = Double.parseDouble(options.get("p99-threshold",String.valueOf(threshold)));
+      Map<String,Map<String,Object>> baseline = latestRun(ResultLog.read(new File(options.getPositional(0))));
+      Map<String,Map<String,Object>> candidate = latestRun(ResultLog.read(new File(options.getPositional(1))));
+
+      int regressions = compare(baseline,candidate,threshold,p99Threshold);
+      System.out.println(regressions + " regression(s) beyond " + threshold + "% throughput / " + p99Threshold + "% p99");
+      System.exit(regressions > 0 ? 1 : 0);
+    } catch (Exception e) {
+      e.printStackTrace(System.out);
+      System.exit(-1);
+    }
+  }
+
+  public static int compare(Map<String,Map<String,Object>> baseline,Map<String,Map<String,Object>> candidate,double threshold,double p99Threshold) {
+    int regressions = 0;
+    System.out.println("strategy\tbase docs/sec\tnew docs/sec\tchange %\tbase p99 ms\tnew p99 ms\tchange %\tverdict");
+    for (Map.Entry<String,Map<String,Object>> entry: candidate.entrySet()) {
+      Map<String,Object> base = baseline.get(entry.getKey());
+      if (null == base) {
+        System.out.println(entry.getKey() + "\t-\t" + number(entry.getValue(),"docs-per-sec") + "\t\t\t\t\t\tnew");
+        continue;
+      }
+      double baseRate = number(base,"docs-per-sec");
+      double newRate = number(entry.getValue(),"docs-per-sec");
+      double baseP99 = number(latency(base),"p99-ms");
+      double newP99 = number(latency(entry.getValue()),"p99-ms");
+      double rateChange = percentChange(baseRate,newRate);
+      double p99Change = percentChange(baseP99,newP99);
+
+      List<String> problems = new ArrayList<String>();
+      if (rateChange < -threshold) {
+        problems.add("THROUGHPUT REGRESSION");
+      }
+      if (p99Change > p99Threshold) {
+        problems.add("P99 REGRESSION");
+      }
+      if (!problems.isEmpty()) {
+        regressions++;
+      }
+      System.out.println(entry.getKey() + "\t" + (long) baseRate + "\t" + (long) newRate + "\t" + String.format("%+.1f",rateChange)
+          + "\t" + String.format("%.2f\t%.2f\t%+.1f",baseP99,newP99,p99Change) + "\t" + (problems.isEmpty() ? "ok" : join(problems)));
+    }
+    for (String strategy: baseline.keySet()) {
+      if (!candidate.containsKey(strategy)) {
+        System.out.println(strategy + "\t" + (long) number(baseline.get(strategy),"docs-per-sec") + "\t-\t\t\t\t\tmissing");
+      }
+    }
+    return regressions;
+  }
+
+  /**
+   * The lines of the last run in a file, by strategy. A run's lines all share its time.
+   */
+  public static Map<String,Map<String,Object>> latestRun(List<Map<String,Object>> lines) {
+    Map<String,Map<String,Object>> byStrategy = new LinkedHashMap<String,Map<String,Object>>();
+    if (lines.isEmpty()) {
+      return byStrategy;
+    }
+    Object time = lines.get(lines.size() - 1).get("time");
+    for (int l = 0;l < lines.size();l++) {
+      Object lineTime = lines.get(l).get("time");
+      if (null == time ? null == lineTime : time.equals(lineTime)) {
+        byStrategy.put(String.valueOf(lines.get(l).get("strategy")),lines.get(l));
+      }
+    }
+    return byStrategy;
+  }
+
+  @SuppressWarnings("unchecked")
+  static Map<String,Object> latency(Map<String,Object> line) {
+    Object latency = line.get("latency");
+    return (latency instanceof Map) ? (Map<String,Object>) latency : new LinkedHashMap<String,Object>();
+  }
+
+  static double number(Map<String,Object> map,String name) {
+    Object value = map.get(name);
+    return (value instanceof Number) ? ((Number) value).doubleValue() : 0.0;
+  }
+
+  static double percentChange(double base,double value) {
+    return (0.0 == base) ? 0.0 : (value - base) * 100.0 / base;
+  }
+
+  static String join(List<String> values) {
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0;i < values.size();i++) {
+      if (i > 0) {
+        sb.append(", ");
+      }
+      sb.append(values.get(i));
+    }
+    return sb.toString();
+  }
+}
@@ -0,0 +1,200 @@
+package com.marklogic.adamfowler.performance;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.RuntimeMXBean;
+import java.net.InetAddress;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+
+/**
+ * Appends each run's results to a JSON-lines file, one line per strategy, so
+ * runs can be compared by ResultCompare rather than by reading test.log.
+ * Every line carries the whole run's metadata: when and where it ran, the
+ * options, the JVM and its collectors, and the values from settings.sh.
+ */
+public class ResultLog {
+  static final String[] SKIPPED_SETTINGS = {"LIBRARIES"};
+
+  public static void append(File file,BenchmarkOptions options,Corpus corpus,List<BenchmarkResult> results) throws IOException {
+    Map<String,Object> run = describeRun(options,corpus);
+    Writer out = new OutputStreamWriter(new FileOutputStream(file,true),Corpus.UTF8);
+    try {
+      for (int r = 0;r < results.size();r++) {
+        out.write(Json.write(toMap(run,results.get(r))));
+        out.write('\n');
+      }
+    } finally {
+      out.close();
+    }
+    System.out.println("Appended " + results.size() + " results to " + file);
+  }
+
+  public static Map<String,Object> toMap(Map<String,Object> run,BenchmarkResult result) {
+    Map<String,Object> line = new LinkedHashMap<String,Object>();
+    line.put("strategy",result.getStrategy());
+    line.put("docs",result.getDocs());
+    line.put("ms",result.getMillis());
+    line.put("docs-per-sec",result.getDocsPerSecond());
+    LatencyRecorder latency = result.getLatency();
+    Map<String,Object> percentiles = new LinkedHashMap<String,Object>();
+    percentiles.put("requests",latency.getCount());
+    percentiles.put("mean-ms",latency.getMeanMillis());
+    for (int p = 0;p < LatencyRecorder.PERCENTILES.length;p++) {
+      percentiles.put("p" + LatencyRecorder.trim(LatencyRecorder.PERCENTILES[p]) + "-ms",latency.getPercentileMillis(LatencyRecorder.PERCENTILES[p]));
+    }
+    percentiles.put("max-ms",latency.getMaxMillis());
+    line.put("latency",percentiles);
+    Map<String,Object> details = new LinkedHashMap<String,Object>();
+    for (Map.Entry<String,String> detail: result.getDetails().entrySet()) {
+      details.put(detail.getKey(),Json.typed(detail.getValue()));
+    }
+    line.put("details",details);
+    if (!result.getServerSamples().isEmpty()) {
+      List<Object> server = new ArrayList<Object>();
+      for (int s = 0;s < result.getServerSamples().size();s++) {
+        server.add(result.getServerSamples().get(s).toMap());
+      }
+      line.put("server",server);
+    }
+    if (!result.getTimeline().isEmpty()) {
+      List<Object> timeline = new ArrayList<Object>();
+      for (int p = 0;p < result.getTimeline().size();p++) {
+        timeline.add(result.getTimeline().get(p).toMap());
+      }
+      line.put("timeline",timeline);
+    }
+    line.putAll(run);
+    return line;
+  }
+
+  public static Map<String,Object> describeRun(BenchmarkOptions options,Corpus corpus) {
+    Map<String,Object> run = new LinkedHashMap<String,Object>();
+    SimpleDateFormat iso = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'");
+    iso.setTimeZone(TimeZone.getTimeZone("UTC"));
+    run.put("time",iso.format(new Date()));
+    run.put("label",options.get("label",null));
+    try {
+      run.put("client-host",InetAddress.getLocalHost().getHostName());
+    } catch (IOException ioe) {
+      run.put("client-host",null);
+    }
+
+    Map<String,Object> corpusInfo = new LinkedHashMap<String,Object>();
+    corpusInfo.put("source",corpus.getSource().getPath());
+    corpusInfo.put("documents",corpus.size());
+    corpusInfo.put("loops",options.getInt("loops",1));
+    corpusInfo.put("warmup",options.getInt("warmup",0));
+    run.put("corpus",corpusInfo);
+
+    Map<String,Object> opts = new LinkedHashMap<String,Object>();
+    for (Map.Entry<String,String> option: options.getValues().entrySet()) {
+      if (!option.getKey().equals("password") && !option.getKey().equals("xcc")) { // keep credentials out of the file
+        opts.put(option.getKey(),option.getValue());
+      }
+    }
+    run.put("options",opts);
+
+    RuntimeMXBean runtime = ManagementFactory.getRuntimeMXBean();
+    Map<String,Object> jvm = new LinkedHashMap<String,Object>();
+    jvm.put("version",System.getProperty("java.version"));
+    jvm.put("vm",runtime.getVmName() + " " + runtime.getVmVersion());
+    jvm.put("os",System.getProperty("os.name") + " " + System.getProperty("os.version") + " " + System.getProperty("os.arch"));
+    jvm.put("processors",Runtime.getRuntime().availableProcessors());
+    jvm.put("max-heap-mb",Runtime.getRuntime().maxMemory() / (1024 * 1024));
+    jvm.put("arguments",new ArrayList<Object>(runtime.getInputArguments()));
+    List<Object> collectors = new ArrayList<Object>();
+    List<GarbageCollectorMXBean> beans = ManagementFactory.getGarbageCollectorMXBeans();
+    for (int c = 0;c < beans.size();c++) {
+      Map<String,Object> gc = new LinkedHashMap<String,Object>();
+      gc.put("name",beans.get(c).getName());
+      gc.put("count",beans.get(c).getCollectionCount());
+      gc.put("ms",beans.get(c).getCollectionTime());
+      collectors.add(gc);
+    }
+    jvm.put("gc",collectors);
+    run.put("jvm",jvm);
+
+    run.put("settings",readSettings(new File(options.get("settings","settings.sh"))));
+    return run;
+  }
+
+  /**
+   * The export NAME=value lines of settings.sh, or nothing if it is not there.
+   */
+  public static Map<String,Object> readSettings(File settings) {
+    Map<String,Object> values = new LinkedHashMap<String,Object>();
+    if (!settings.isFile()) {
+      return values;
+    }
+    try {
+      BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(settings),Corpus.UTF8));
+      try {
+        String line;
+        while (null != (line = reader.readLine())) {
+          line = line.trim();
+          if (line.startsWith("export ")) {
+            line = line.substring(7).trim();
+          }
+          int eq = line.indexOf('=');
+          if (line.startsWith("#") || eq < 1) {
+            continue;
+          }
+          String name = line.substring(0,eq);
+          boolean skipped = false;
+          for (int s = 0;s < SKIPPED_SETTINGS.length;s++) {
+            skipped |= SKIPPED_SETTINGS[s].equals(name);
+          }
+          if (!skipped) {
+            values.put(name,unquote(line.substring(eq + 1)));
+          }
+        }
+      } finally {
+        reader.close();
+      }
+    } catch (IOException ioe) {
+      ioe.printStackTrace(System.out);
+    }
+    return values;
+  }
+
+  static String unquote(String value) {
+    if (value.length() >= 2 && (value.startsWith("\"") && value.endsWith("\"") || value.startsWith("'") && value.endsWith("'"))) {
+      return value.substring(1,value.length() - 1);
+    }
+    return value;
+  }
+
+  /**
+   * Every result line in a file, oldest first.
+   */
+  @SuppressWarnings("unchecked")
+  public static List<Map<String,Object>> read(File file) throws IOException {
+    List<Map<String,Object>> lines = new ArrayList<Map<String,Object>>();
+    BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file),Corpus.UTF8));
+    try {
+      String line;
+      while (null != (line = reader.readLine())) {
+        if (line.trim().length() > 0) {
+          lines.add((Map<String,Object>) Json.parse(line));
+        }
+      }
+    } finally {
+      reader.close();
+    }
+    return lines;
+  }
+}
@@ -0,0 +1,130 @@
+package com.marklogic.adamfowler.performance;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Runs a document through an XMLSanitizer as it is read, so invalid
+ * characters and the XML declaration are stripped on the way to the server
+ * rather than by a prepxml.sh pass over the files first.
+ *
+ * Bulk reads are filtered in place in the caller's array, so the stream
+ * holds no buffer of its own beyond a small one for single byte and very
+ * short reads, and never holds more than a few bytes of the document.
+ */
+public class SanitizingInputStream extends FilterInputStream {
+  static final int SMALL_BUFFER_SIZE = 256;
+
+  XMLSanitizer sanitizer;
+  boolean finished = false;
+  byte[] small = null;
+  int smallPos = 0;
+  int smallLimit = 0;
+
+  public SanitizingInputStream(InputStream in) {
+    this(in,new XMLSanitizer());
+  }
+
+  public SanitizingInputStream(InputStream in,XMLSanitizer sanitizer) {
+    super(in);
+    this.sanitizer = sanitizer;
+  }
+
+  public int read() throws IOException {
+    if (!fillSmall()) {
+      return -1;
+    }
+    return small[smallPos++] & 0xFF;
+  }
+
+  public int read(byte[] b,int off,int len) throws IOException {
+    if (0 == len) {
+      return 0;
+    }
+    if (smallPos < smallLimit || len <= 2 * XMLSanitizer.MAX_CARRY) {
+      if (!fillSmall()) {
+        return -1;
+      }
+      len = Math.min(len,smallLimit - smallPos);
+      System.arraycopy(small,smallPos,b,off,len);
+      smallPos += len;
+      return len;
+    }
+    return filterInto(b,off,len);
+  }
+
+  public long skip(long n) throws IOException {
+    long skipped = 0;
+    byte[] scratch = new byte[(int) Math.min(4096,Math.max(n,SMALL_BUFFER_SIZE))];
+    int len;
+    while (skipped < n && -1 != (len = read(scratch,0,(int) Math.min(scratch.length,n - skipped)))) {
+      skipped += len;
+    }
+    return skipped;
+  }
+
+  public int available() throws IOException {
+    // filtering can only shrink what is underneath, so this is an upper bound, not a promise
+    return (smallLimit - smallPos);
+  }
+
+  public boolean markSupported() {
+    return false;
+  }
+
+  public void mark(int readlimit) {
+  }
+
+  public void reset() throws IOException {
+    throw new IOException("mark/reset not supported");
+  }
+
+  /**
+   * Number of characters stripped so far.
+   */
+  public long getRemoved() {
+    return sanitizer.getRemoved();
+  }
+
+  boolean fillSmall() throws IOException {
+    if (smallPos < smallLimit) {
+      return true;
+    }
+    if (null == small) {
+      small = new byte[SMALL_BUFFER_SIZE];
+    }
+    int n = filterInto(small,0,small.length);
+    if (-1 == n) {
+      return false;
+    }
+    smallPos = 0;
+    smallLimit = n;
+    return true;
+  }
+
+  /**
+   * Reads raw bytes into the tail of b[off..off+len) and filters them down to
+   * its head. The sanitizer never writes more than MAX_CARRY bytes beyond what
+   * it has read, so starting the raw bytes MAX_CARRY along keeps its output
+   * behind its input.
+   */
+  int filterInto(byte[] b,int off,int len) throws IOException {
+    int rawOff = off + XMLSanitizer.MAX_CARRY;
+    while (!finished) {
+      int raw = in.read(b,rawOff,len - XMLSanitizer.MAX_CARRY);
+      int n;
+      if (-1 == raw) {
+        finished = true;
+        n = sanitizer.finish(b,off);
+      } else {
+        n = sanitizer.filter(b,rawOff,raw,b,off);
+      }
+      if (n > 0) {
+        return n;
+      }
+      // everything read so far was stripped, so read some more
+    }
+    return -1;
+  }
+}
@@ -0,0 +1,108 @@
+package com.marklogic.adamfowler.performance;
+
+import java.io.StringReader;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * One reading of the server's status, taken millis after the measured window
+ * began, alongside how many client requests had completed by then. Host
+ * figures are averaged over the hosts, forest figures summed over the forests.
+ */
+public class ServerSample {
+  static final String[] HOST_AVERAGES = {"cpu-user","cpu-system","cpu-iowait"};
+  static final String[] HOST_SUMS = {"memory-rss-mb"};
+  static final String[] FOREST_SUMS = {"stands","in-memory-stands","merges","journals-mb","write-lock-wait-load","write-lock-hold-load"};
+
+  static final XMLInputFactory FACTORY = XMLInputFactory.newInstance();
+
+  long millis;
+  long clientRequests;
+  Map<String,Double> metrics = new LinkedHashMap<String,Double>();
+
+  public ServerSample(long millis,long clientRequests) {
+    this.millis = millis;
+    this.clientRequests = clientRequests;
+  }
+
+  public static ServerSample parse(long millis,long clientRequests,String statusXml) throws XMLStreamException {
+    ServerSample sample = new ServerSample(millis,clientRequests);
+    double[] hostTotals = new double[HOST_AVERAGES.length + HOST_SUMS.length];
+    double[] forestTotals = new double[FOREST_SUMS.length];
+    int hosts = 0;
+    int forests = 0;
+    XMLStreamReader reader = FACTORY.createXMLStreamReader(new StringReader(statusXml));
+    try {
+      while (reader.hasNext()) {
+        if (XMLStreamConstants.START_ELEMENT != reader.next()) {
+          continue;
+        }
+        if ("host".equals(reader.getLocalName())) {
+          hosts++;
+          for (int m = 0;m < HOST_AVERAGES.length;m++) {
+            hostTotals[m] += attribute(reader,HOST_AVERAGES[m]);
+          }
+          for (int m = 0;m < HOST_SUMS.length;m++) {
+            hostTotals[HOST_AVERAGES.length + m] += attribute(reader,HOST_SUMS[m]);
+          }
+        } else if ("forest".equals(reader.getLocalName())) {
+          forests++;
+          for (int m = 0;m < FOREST_SUMS.length;m++) {
+            forestTotals[m] += attribute(reader,FOREST_SUMS[m]);
+          }
+        }
+      }
+    } finally {
+      reader.close();
+    }
+    sample.metrics.put("hosts",(double) hosts);
+    for (int m = 0;m < HOST_AVERAGES.length;m++) {
+      sample.metrics.put(HOST_AVERAGES[m],hostTotals[m] / Math.max(1,hosts));
+    }
+    for (int m = 0;m < HOST_SUMS.length;m++) {
+      sample.metrics.put(HOST_SUMS[m],hostTotals[HOST_AVERAGES.length + m]);
+    }
+    sample.metrics.put("forests",(double) forests);
+    for (int m = 0;m < FOREST_SUMS.length;m++) {
+      sample.metrics.put(FOREST_SUMS[m],forestTotals[m]);
+    }
+    return sample;
+  }
+
+  static double attribute(XMLStreamReader reader,String name) {
+    String value = reader.getAttributeValue(null,name);
+    if (null == value || 0 == value.length()) {
+      return 0.0;
+    }
+    try {
+      return Double.parseDouble(value);
+    } catch (NumberFormatException nfe) {
+      return 0.0;
+    }
+  }
+
+  public long getMillis() {
+    return millis;
+  }
+
+  public long getClientRequests() {
+    return clientRequests;
+  }
+
+  public Map<String,Double> getMetrics() {
+    return metrics;
+  }
+
+  public Map<String,Object> toMap() {
+    Map<String,Object> map = new LinkedHashMap<String,Object>();
+    map.put("ms",millis);
+    map.put("client-requests",clientRequests);
+    map.putAll(metrics);
+    return map;
+  }
+}
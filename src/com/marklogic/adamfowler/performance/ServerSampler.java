@@ -0,0 +1,118 @@
+package com.marklogic.adamfowler.performance;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Polls a ServerStatusSource at a fixed interval while a strategy's measured
+ * window runs. Each sample is timed from the start of the window and records
+ * how many requests the client had completed by then, so server and client
+ * activity line up in report().
+ */
+public class ServerSampler extends Thread {
+  ServerStatusSource source;
+  long intervalMillis;
+  LatencyRecorder latency;
+  List<ServerSample> samples = new ArrayList<ServerSample>();
+  volatile boolean running = true;
+  long start;
+  int failures = 0;
+
+  public ServerSampler(ServerStatusSource source,long intervalMillis,LatencyRecorder latency) {
+    this.source = source;
+    this.intervalMillis = intervalMillis;
+    this.latency = latency;
+    setName("server-sampler");
+    setDaemon(true);
+  }
+
+  public void start() {
+    start = System.nanoTime();
+    super.start();
+  }
+
+  public void run() {
+    long next = start;
+    while (running) {
+      sample();
+      // fixed rate: a slow status call does not push later samples back
+      next += intervalMillis * 1000000L;
+      long wait = next - System.nanoTime();
+      if (wait > 0) {
+        try {
+          Thread.sleep(wait / 1000000L,(int) (wait % 1000000L));
+        } catch (InterruptedException ie) {
+          // halted
+        }
+      } else {
+        next = System.nanoTime();
+      }
+    }
+  }
+
+  void sample() {
+    long requests = latency.getCount();
+    long millis = (System.nanoTime() - start) / 1000000L;
+    try {
+      ServerSample sample = ServerSample.parse(millis,requests,source.fetchStatus());
+      synchronized (samples) {
+        samples.add(sample);
+      }
+    } catch (Exception e) {
+      if (0 == failures++) {
+        System.out.println("Server status failed (further failures not shown): " + e);
+      }
+    }
+  }
+
+  /**
+   * Stops sampling after one final sample, so the end of the window is covered.
+   */
+  public void halt() throws InterruptedException {
+    running = false;
+    interrupt();
+    join();
+    sample();
+  }
+
+  public List<ServerSample> getSamples() {
+    synchronized (samples) {
+      return new ArrayList<ServerSample>(samples);
+    }
+  }
+
+  public int getFailures() {
+    return failures;
+  }
+
+  /**
+   * One tab separated line per sample: time, client requests/sec since the
+   * previous sample, then every server figure.
+   */
+  public static String report(String strategy,List<ServerSample> samples) {
+    StringBuilder sb = new StringBuilder();
+    if (samples.isEmpty()) {
+      return sb.append(strategy).append(": no server samples").toString();
+    }
+    sb.append("strategy\tsecs\tclient req/sec");
+    for (String name: samples.get(0).getMetrics().keySet()) {
+      sb.append('\t').append(name);
+    }
+    long lastMillis = 0;
+    long lastRequests = 0;
+    for (int s = 0;s < samples.size();s++) {
+      ServerSample sample = samples.get(s);
+      long elapsed = sample.getMillis() - lastMillis;
+      long rate = (elapsed <= 0) ? 0 : (sample.getClientRequests() - lastRequests) * 1000 / elapsed;
+      sb.append('\n').append(strategy).append('\t').append(String.format("%.1f",sample.getMillis() / 1000.0)).append('\t').append(rate);
+      for (Map.Entry<String,Double> metric: sample.getMetrics().entrySet()) {
+        double value = metric.getValue();
+        sb.append('\t').append(value == Math.rint(value) ? String.valueOf((long) value) : String.format("%.2f",value));
+      }
+      lastMillis = sample.getMillis();
+      lastRequests = sample.getClientRequests();
+    }
+    return sb.toString();
+  }
+}
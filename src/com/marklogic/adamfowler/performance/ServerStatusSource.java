@@ -0,0 +1,13 @@
+package com.marklogic.adamfowler.performance;
+
+/**
+ * Somewhere to get the server's current status from, as the flat status XML
+ * that ServerSample reads: one host element per host and one forest element
+ * per forest of the database being written to. See XCCStatusSource for the
+ * real server and CannedStatusSource for a stand-in.
+ */
+public interface ServerStatusSource {
+  public String fetchStatus() throws Exception;
+
+  public void close();
+}
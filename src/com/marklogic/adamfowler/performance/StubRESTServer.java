@@ -0,0 +1,506 @@
+package com.marklogic.adamfowler.performance;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * An in-process stand-in for a MarkLogic REST server, so the client side of
+ * each strategy can be measured, and the harness exercised, without a
+ * server. It implements just enough for the clients this project uses:
+ *
+ * PUT  /v1/documents?uri=            XMLDocumentManager.write
+ * HEAD /v1/documents?uri=            exists checks
+ * HEAD /v1/ping                      the client's authentication probe
+ * POST /v1/resources/docbatch        BatchManager.apply (put, get and delete requests)
+ * POST /v1/resources/docsplit        DocumentSplitter.split
+ * GET|POST /v1/resources/searchcollect  SearchCollector, answered from the stored
+ *                                    documents in URI order, whatever the query
+ *
+ * Documents are only kept if --stub-store=true. Every request can be slowed
+ * by a fixed latency and a bandwidth limit, and failed at random.
+ *
+ * --stub-latency=MS           added to every request (default 0)
+ * --stub-bandwidth=MBPS       megabytes/sec for request plus response bodies (default unlimited)
+ * --stub-error-rate=F         fraction of requests answered with a 500 (default 0)
+ * --stub-item-error-rate=F    fraction of docbatch items reported as failed (default 0)
+ * --stub-threads=N            request threads (default 64)
+ * --stub-store=true           keep written documents for reads and searches
+ */
+public class StubRESTServer {
+  static final String RAPI_NS = "http://marklogic.com/rest-api";
+  static final String SEARCH_NS = "http://marklogic.com/appservices/search";
+  static final String BOUNDARY = "STUBBOUNDARY";
+
+  HttpServer server;
+  ExecutorService executor;
+  long latencyMillis;
+  double bytesPerMilli;
+  double errorRate;
+  double itemErrorRate;
+  boolean store;
+  Map<String,byte[]> documents = new ConcurrentHashMap<String,byte[]>();
+  DocumentBuilderFactory factory;
+
+  AtomicLong requests = new AtomicLong();
+  AtomicLong documentsWritten = new AtomicLong();
+  AtomicLong bytesReceived = new AtomicLong();
+  AtomicLong errors = new AtomicLong();
+
+  public StubRESTServer(BenchmarkOptions options) {
+    latencyMillis = options.getInt("stub-latency",0);
+    double mbps = Double.parseDouble(options.get("stub-bandwidth","0"));
+    bytesPerMilli = mbps * 1024 * 1024 / 1000.0;
+    errorRate = Double.parseDouble(options.get("stub-error-rate","0"));
+    itemErrorRate = Double.parseDouble(options.get("stub-item-error-rate","0"));
+    store = Boolean.parseBoolean(options.get("stub-store","false"));
+    executor = Executors.newFixedThreadPool(options.getInt("stub-threads",64));
+    factory = DocumentBuilderFactory.newInstance();
+    factory.setNamespaceAware(true);
+  }
+
+  /**
+   * Starts listening on the given port, or any free port if 0, and returns the port.
+   */
+  public int start(int port) throws IOException {
+    server = HttpServer.create(new InetSocketAddress("localhost",port),1024);
+    server.createContext("/",new HttpHandler() {
+      public void handle(HttpExchange exchange) throws IOException {
+        try {
+          dispatch(exchange);
+        } catch (Exception e) {
+          errors.incrementAndGet();
+          e.printStackTrace(System.out);
+          if (-1 == exchange.getResponseCode()) { // nothing sent yet
+            send(exchange,500,"application/xml",error("STUB-INTERNAL",String.valueOf(e)),0);
+          }
+        } finally {
+          exchange.close();
+        }
+      }
+    });
+    server.setExecutor(executor);
+    server.start();
+    return server.getAddress().getPort();
+  }
+
+  public void stop() {
+    server.stop(0);
+    executor.shutdownNow();
+  }
+
+  public int getPort() {
+    return server.getAddress().getPort();
+  }
+
+  public long getRequests() {
+    return requests.get();
+  }
+
+  public long getDocumentsWritten() {
+    return documentsWritten.get();
+  }
+
+  public long getBytesReceived() {
+    return bytesReceived.get();
+  }
+
+  public long getErrors() {
+    return errors.get();
+  }
+
+  public String summary() {
+    return "stub served " + requests.get() + " requests, " + documentsWritten.get() + " documents written, "
+        + bytesReceived.get() / 1024 + " KB received, " + errors.get() + " errors";
+  }
+
+  void dispatch(HttpExchange exchange) throws Exception {
+    long start = System.currentTimeMillis();
+    requests.incrementAndGet();
+    byte[] body = readAll(exchange.getRequestBody());
+    bytesReceived.addAndGet(body.length);
+    String path = exchange.getRequestURI().getPath();
+    String method = exchange.getRequestMethod();
+    Map<String,String> params = params(exchange.getRequestURI());
+
+    if (errorRate > 0 && ThreadLocalRandom.current().nextDouble() < errorRate) {
+      errors.incrementAndGet();
+      send(exchange,500,"application/xml",error("STUB-INJECTED","injected failure"),start);
+      return;
+    }
+
+    if ("/v1/ping".equals(path)) {
+      // the client pings before its first request to set up digest authentication
+      send(exchange,200,null,(byte[]) null,start);
+    } else if ("/v1/documents".equals(path) && "HEAD".equals(method)) {
+      // exists checks; with no store every document is taken to exist
+      String uri = params.get("uri");
+      boolean exists = null != uri && (!store || documents.containsKey(uri));
+      if (exists) {
+        exchange.getResponseHeaders().set("Content-Type","application/xml");
+      }
+      send(exchange,exists ? 200 : 404,null,(byte[]) null,start);
+    } else if ("/v1/documents".equals(path) && "PUT".equals(method)) {
+      String uri = params.get("uri");
+      if (null == uri) {
+        send(exchange,400,"application/xml",error("REST-REQUIREDPARAM","uri parameter required"),start);
+        return;
+      }
+      boolean existed = store ? null != documents.put(uri,body) : false;
+      documentsWritten.incrementAndGet();
+      send(exchange,existed ? 204 : 201,null,(byte[]) null,start);
+    } else if ("/v1/resources/docbatch".equals(path) && "POST".equals(method)) {
+      docbatch(exchange,body,start);
+    } else if ("/v1/resources/docsplit".equals(path) && "POST".equals(method)) {
+      docsplit(exchange,body,start);
+    } else if ("/v1/resources/searchcollect".equals(path)) {
+      searchcollect(exchange,params,start);
+    } else {
+      send(exchange,404,"application/xml",error("REST-UNSUPPORTEDPATH","stub does not implement " + method + " " + path),start);
+    }
+  }
+
+  void docbatch(HttpExchange exchange,byte[] body,long start) throws Exception {
+    List<byte[]> parts = splitMultipart(body,boundary(exchange.getRequestHeaders().getFirst("Content-Type")));
+    if (parts.isEmpty()) {
+      send(exchange,400,"application/xml",error("RESTAPI-INVALIDCONTENT","no batch manifest"),start);
+      return;
+    }
+    Document manifest = parse(partBody(parts.get(0)));
+    StringBuilder response = new StringBuilder();
+    response.append("<?xml version='1.0' encoding='UTF-8'?>\n<rapi:batch-responses xmlns:rapi='" + RAPI_NS + "'>");
+    List<byte[]> contents = new ArrayList<byte[]>();
+    int nextPart = 1;
+    NodeList requests = manifest.getDocumentElement().getChildNodes();
+    for (int i = 0;i < requests.getLength();i++) {
+      if (Node.ELEMENT_NODE != requests.item(i).getNodeType()) {
+        continue;
+      }
+      Element request = (Element) requests.item(i);
+      String uri = childText(request,"uri");
+      boolean succeeded = !(itemErrorRate > 0 && ThreadLocalRandom.current().nextDouble() < itemErrorRate);
+      String kind = request.getLocalName();
+      if ("put-request".equals(kind)) {
+        byte[] content = null;
+        if (null != childText(request,"content-mimetype") && nextPart < parts.size()) {
+          content = partBody(parts.get(nextPart++));
+        }
+        if (succeeded) {
+          if (store && null != content) {
+            documents.put(uri,content);
+          }
+          documentsWritten.incrementAndGet();
+        }
+        response.append("<rapi:put-response>");
+      } else if ("get-request".equals(kind)) {
+        byte[] content = documents.get(uri);
+        succeeded &= (null != content);
+        response.append("<rapi:get-response>");
+        if (succeeded) {
+          response.append("<rapi:content-mimetype>application/xml</rapi:content-mimetype>");
+          contents.add(content);
+        }
+      } else if ("delete-request".equals(kind)) {
+        documents.remove(uri);
+        response.append("<rapi:delete-response>");
+      } else {
+        continue;
+      }
+      response.append("<rapi:uri>").append(escape(uri)).append("</rapi:uri>");
+      response.append("<rapi:request-succeeded>").append(succeeded).append("</rapi:request-succeeded>");
+      if (!succeeded) {
+        response.append("<rapi:error-mimetype>application/xml</rapi:error-mimetype>"); // as docbatch.xqy
+        contents.add(error("STUB-ITEM","item failed").getBytes(Corpus.UTF8));
+      }
+      response.append("</rapi:" + kind.replace("-request","-response") + ">");
+    }
+    response.append("</rapi:batch-responses>");
+    contents.add(0,response.toString().getBytes(Corpus.UTF8));
+    sendMultipart(exchange,contents,start);
+  }
+
+  void docsplit(HttpExchange exchange,byte[] body,long start) throws Exception {
+    Document input = parse(body);
+    NodeList all = input.getElementsByTagNameNS("*","*");
+    int split = 0;
+    for (int i = 0;i < all.getLength();i++) {
+      Element element = (Element) all.item(i);
+      String uri = element.getAttributeNS(RAPI_NS,"uri");
+      if (null != uri && uri.length() > 0) {
+        split++;
+        documentsWritten.incrementAndGet();
+        if (store) {
+          documents.put(uri,serialize(element));
+        }
+      }
+    }
+    if (0 == split) {
+      send(exchange,400,"application/xml",error("RESTAPI-INVALIDCONTENT","no rapi:uri attributes to split"),start);
+      return;
+    }
+    send(exchange,200,"application/xml","<rapi:split-docs xmlns:rapi='" + RAPI_NS + "'>" + split + "</rapi:split-docs>",start);
+  }
+
+  void searchcollect(HttpExchange exchange,Map<String,String> params,long start) throws Exception {
+    int from = params.containsKey("start") ? Integer.parseInt(params.get("start")) : 1;
+    int pageLength = params.containsKey("pageLength") ? Integer.parseInt(params.get("pageLength")) : 10;
+    List<String> uris = new ArrayList<String>(documents.keySet());
+    java.util.Collections.sort(uris);
+    StringBuilder response = new StringBuilder();
+    response.append("<search:response xmlns:search='" + SEARCH_NS + "' total='" + uris.size() + "' start='" + from
+        + "' page-length='" + pageLength + "'>");
+    List<byte[]> contents = new ArrayList<byte[]>();
+    for (int i = from - 1;i >= 0 && i < uris.size() && i < from - 1 + pageLength;i++) {
+      response.append("<search:result index='" + (i + 1) + "' uri='" + escape(uris.get(i)) + "'/>");
+      contents.add(documents.get(uris.get(i)));
+    }
+    response.append("</search:response>");
+    contents.add(0,response.toString().getBytes(Corpus.UTF8));
+    sendMultipart(exchange,contents,start);
+  }
+
+  void sendMultipart(HttpExchange exchange,List<byte[]> contents,long start) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    for (int c = 0;c < contents.size();c++) {
+      out.write(("\r\n--" + BOUNDARY + "\r\nContent-Type: application/xml\r\n\r\n").getBytes(Corpus.UTF8));
+      out.write(contents.get(c));
+    }
+    out.write(("\r\n--" + BOUNDARY + "--\r\n").getBytes(Corpus.UTF8));
+    send(exchange,200,"multipart/mixed; boundary=" + BOUNDARY,out.toByteArray(),start);
+  }
+
+  void send(HttpExchange exchange,int status,String contentType,String body,long start) throws IOException {
+    send(exchange,status,contentType,(null == body) ? null : body.getBytes(Corpus.UTF8),start);
+  }
+
+  /**
+   * Waits out the configured latency and bandwidth for this exchange, then responds.
+   */
+  void send(HttpExchange exchange,int status,String contentType,byte[] body,long start) throws IOException {
+    long delay = latencyMillis;
+    if (bytesPerMilli > 0) {
+      String length = exchange.getRequestHeaders().getFirst("Content-Length");
+      long bytes = ((null == body) ? 0 : body.length) + ((null == length) ? 0 : Long.parseLong(length));
+      delay += (long) (bytes / bytesPerMilli);
+    }
+    long wait = start + delay - System.currentTimeMillis();
+    if (wait > 0 && start > 0) {
+      try {
+        Thread.sleep(wait);
+      } catch (InterruptedException ie) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    if (null != contentType) {
+      exchange.getResponseHeaders().set("Content-Type",contentType);
+    }
+    if (null == body || 0 == body.length || "HEAD".equals(exchange.getRequestMethod())) {
+      exchange.sendResponseHeaders(status,-1);
+      return;
+    }
+    exchange.sendResponseHeaders(status,body.length);
+    OutputStream out = exchange.getResponseBody();
+    out.write(body);
+    out.close();
+  }
+
+  static byte[] serialize(Element element) throws Exception {
+    Transformer transformer = TransformerFactory.newInstance().newTransformer();
+    transformer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION,"yes");
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    transformer.transform(new DOMSource(element),new StreamResult(out));
+    return out.toByteArray();
+  }
+
+  Document parse(byte[] xml) throws Exception {
+    return factory.newDocumentBuilder().parse(new ByteArrayInputStream(xml));
+  }
+
+  static String childText(Element parent,String localName) {
+    NodeList children = parent.getChildNodes();
+    for (int i = 0;i < children.getLength();i++) {
+      Node child = children.item(i);
+      if (Node.ELEMENT_NODE == child.getNodeType() && localName.equals(child.getLocalName())) {
+        return child.getTextContent();
+      }
+    }
+    return null;
+  }
+
+  static String error(String code,String message) {
+    return "<error-response xmlns='http://marklogic.com/rest-api'><status-code>500</status-code><status>Internal Server Error</status>"
+        + "<message-code>" + code + "</message-code><message>" + escape(message) + "</message></error-response>";
+  }
+
+  static String escape(String text) {
+    return (null == text) ? "" : text.replace("&","&amp;").replace("<","&lt;").replace("'","&apos;").replace("\"","&quot;");
+  }
+
+  static byte[] readAll(InputStream in) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    byte[] buffer = new byte[16384];
+    int len;
+    while (-1 != (len = in.read(buffer))) {
+      out.write(buffer,0,len);
+    }
+    return out.toByteArray();
+  }
+
+  static Map<String,String> params(URI uri) throws IOException {
+    Map<String,String> params = new LinkedHashMap<String,String>();
+    String query = uri.getRawQuery();
+    if (null == query) {
+      return params;
+    }
+    String[] pairs = query.split("&");
+    for (int p = 0;p < pairs.length;p++) {
+      int eq = pairs[p].indexOf('=');
+      if (eq > 0) {
+        params.put(URLDecoder.decode(pairs[p].substring(0,eq),"UTF-8"),URLDecoder.decode(pairs[p].substring(eq + 1),"UTF-8"));
+      }
+    }
+    return params;
+  }
+
+  static String boundary(String contentType) {
+    if (null == contentType) {
+      return null;
+    }
+    String[] fields = contentType.split(";");
+    for (int f = 1;f < fields.length;f++) {
+      String field = fields[f].trim();
+      if (field.startsWith("boundary=")) {
+        String boundary = field.substring(9);
+        return boundary.startsWith("\"") ? boundary.substring(1,boundary.length() - 1) : boundary;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * The parts of a multipart body, each still with its headers.
+   */
+  static List<byte[]> splitMultipart(byte[] body,String boundary) {
+    List<byte[]> parts = new ArrayList<byte[]>();
+    if (null == boundary) {
+      return parts;
+    }
+    byte[] delimiter = ("--" + boundary).getBytes(Corpus.UTF8);
+    int at = indexOf(body,delimiter,0);
+    while (at >= 0) {
+      int from = at + delimiter.length;
+      if (from + 1 < body.length && '-' == body[from] && '-' == body[from + 1]) {
+        break; // closing delimiter
+      }
+      from = skipLine(body,from);
+      int next = indexOf(body,delimiter,from);
+      if (next < 0) {
+        break;
+      }
+      int to = next;
+      // the CRLF before a delimiter belongs to the delimiter
+      if (to >= 2 && '\r' == body[to - 2] && '\n' == body[to - 1]) {
+        to -= 2;
+      } else if (to >= 1 && '\n' == body[to - 1]) {
+        to -= 1;
+      }
+      byte[] part = new byte[Math.max(0,to - from)];
+      System.arraycopy(body,from,part,0,part.length);
+      parts.add(part);
+      at = next;
+    }
+    return parts;
+  }
+
+  /**
+   * A part's body, after its headers.
+   */
+  static byte[] partBody(byte[] part) {
+    for (int i = 0;i < part.length;i++) {
+      if ('\n' == part[i] && (i + 1 < part.length && '\n' == part[i + 1])) {
+        return copyFrom(part,i + 2);
+      }
+      if ('\n' == part[i] && i + 2 < part.length && '\r' == part[i + 1] && '\n' == part[i + 2]) {
+        return copyFrom(part,i + 3);
+      }
+    }
+    return part; // no headers
+  }
+
+  static byte[] copyFrom(byte[] bytes,int from) {
+    byte[] copy = new byte[bytes.length - from];
+    System.arraycopy(bytes,from,copy,0,copy.length);
+    return copy;
+  }
+
+  static int skipLine(byte[] bytes,int from) {
+    while (from < bytes.length && '\n' != bytes[from]) {
+      from++;
+    }
+    return from + 1;
+  }
+
+  static int indexOf(byte[] bytes,byte[] target,int from) {
+    outer:
+    for (int i = from;i <= bytes.length - target.length;i++) {
+      for (int t = 0;t < target.length;t++) {
+        if (bytes[i + t] != target[t]) {
+          continue outer;
+        }
+      }
+      return i;
+    }
+    return -1;
+  }
+
+  /**
+   * --port=N plus the --stub- options in the class comment. Runs until killed.
+   *
+   * @param args
+   */
+  public static void main(String args[]) {
+    try {
+      BenchmarkOptions options = BenchmarkOptions.parse(args);
+      StubRESTServer stub = new StubRESTServer(options);
+      int port = stub.start(options.getInt("port",8011));
+      System.out.println("Stub REST server listening on localhost:" + port);
+      while (true) {
+        Thread.sleep(10000);
+        System.out.println(stub.summary());
+      }
+    } catch (Exception e) {
+      e.printStackTrace(System.out);
+      System.exit(-1);
+    }
+  }
+}
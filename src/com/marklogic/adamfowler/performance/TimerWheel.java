@@ -0,0 +1,118 @@
+package com.marklogic.adamfowler.performance;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A hashed timer wheel. One ticker thread advances a ring of slots every tick
+ * and hands each task whose deadline has passed to an executor, so thousands
+ * of tasks a second can be released on time without a thread sleeping for
+ * each. Deadlines are System.nanoTime() values and are honoured to within
+ * one tick.
+ */
+public class TimerWheel {
+  long tickNanos;
+  Queue<Timeout>[] wheel;
+  int mask;
+  Queue<Timeout> pending = new ConcurrentLinkedQueue<Timeout>();
+  Executor executor;
+  Thread ticker;
+  long startNanos;
+  volatile boolean running = false;
+
+  @SuppressWarnings({"unchecked","rawtypes"})
+  public TimerWheel(long tickNanos,int slots,Executor executor) {
+    if (Integer.bitCount(slots) != 1) {
+      throw new IllegalArgumentException("slots must be a power of two: " + slots);
+    }
+    this.tickNanos = tickNanos;
+    this.wheel = new Queue[slots];
+    for (int s = 0;s < slots;s++) {
+      wheel[s] = new ArrayDeque<Timeout>();
+    }
+    this.mask = slots - 1;
+    this.executor = executor;
+  }
+
+  public void start() {
+    startNanos = System.nanoTime();
+    running = true;
+    ticker = new Thread() {
+      public void run() {
+        tick();
+      }
+    };
+    ticker.setName("timer-wheel");
+    ticker.setDaemon(true);
+    ticker.start();
+  }
+
+  /**
+   * How far ahead a task can be scheduled without going round the wheel more than once.
+   */
+  public long getHorizonNanos() {
+    return tickNanos * wheel.length;
+  }
+
+  public void schedule(Runnable task,long deadlineNanos) {
+    pending.add(new Timeout(task,deadlineNanos));
+  }
+
+  /**
+   * Stops the ticker. Tasks not yet released are dropped.
+   */
+  public void stop() throws InterruptedException {
+    running = false;
+    ticker.join();
+  }
+
+  void tick() {
+    long tick = 0;
+    Timeout timeout;
+    while (running) {
+      long tickTime = startNanos + tick * tickNanos;
+      long wait;
+      while ((wait = tickTime - System.nanoTime()) > 0) {
+        LockSupport.parkNanos(wait);
+      }
+
+      // only this thread touches the slots, new tasks arrive through pending
+      while (null != (timeout = pending.poll())) {
+        // round up so nothing is released before its deadline
+        long due = (timeout.deadlineNanos - startNanos + tickNanos - 1) / tickNanos;
+        if (due <= tick) {
+          executor.execute(timeout.task);
+        } else {
+          timeout.rounds = (due - tick) / wheel.length;
+          wheel[(int) (due & mask)].add(timeout);
+        }
+      }
+
+      Queue<Timeout> slot = wheel[(int) (tick & mask)];
+      for (int n = slot.size();n > 0;n--) {
+        timeout = slot.poll();
+        if (timeout.rounds > 0) {
+          timeout.rounds--;
+          slot.add(timeout);
+        } else {
+          executor.execute(timeout.task);
+        }
+      }
+      tick++;
+    }
+  }
+
+  static class Timeout {
+    Runnable task;
+    long deadlineNanos;
+    long rounds = 0;
+
+    Timeout(Runnable task,long deadlineNanos) {
+      this.task = task;
+      this.deadlineNanos = deadlineNanos;
+    }
+  }
+}
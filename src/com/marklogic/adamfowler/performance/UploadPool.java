@@ -0,0 +1,113 @@
+package com.marklogic.adamfowler.performance;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.marklogic.client.io.marker.XMLWriteHandle;
+
+/**
+ * A fixed set of worker threads that take (uri, content) tasks from a bounded
+ * queue and write them through a shared ClientPool. Unlike starting an
+ * UploadWrapper per document this costs a constant number of threads however
+ * many documents are written, and submit() blocks once the queue is full so
+ * the client can never get further ahead of the server than the queue size.
+ */
+public class UploadPool implements Uploader {
+  static final UploadTask STOP = new UploadTask(null,null,0);
+
+  ClientPool clients;
+  BlockingQueue<UploadTask> queue;
+  Worker[] workers;
+  AtomicLong completed = new AtomicLong();
+  AtomicLong failed = new AtomicLong();
+  LatencyRecorder latency;
+  Progress progress;
+
+  public UploadPool(ClientPool clients,int workerCount,int queueSize,LatencyRecorder latency,Progress progress) {
+    this.clients = clients;
+    this.latency = latency;
+    this.progress = progress;
+    this.queue = new ArrayBlockingQueue<UploadTask>(queueSize);
+    this.workers = new Worker[workerCount];
+    for (int w = 0;w < workerCount;w++) {
+      workers[w] = new Worker();
+      workers[w].setName("upload-worker-" + w);
+    }
+  }
+
+  public void start() {
+    for (int w = 0;w < workers.length;w++) {
+      workers[w].start();
+    }
+  }
+
+  /**
+   * Queues a write, blocking while the queue is full.
+   */
+  public void submit(String uri,XMLWriteHandle content,long bytes) throws InterruptedException {
+    queue.put(new UploadTask(uri,content,bytes));
+  }
+
+  /**
+   * Lets the workers drain everything already queued, then waits for them to exit.
+   */
+  public void shutdown() throws InterruptedException {
+    for (int w = 0;w < workers.length;w++) {
+      queue.put(STOP);
+    }
+    for (int w = 0;w < workers.length;w++) {
+      workers[w].join();
+    }
+  }
+
+  public long getCompleted() {
+    return completed.get();
+  }
+
+  public long getFailed() {
+    return failed.get();
+  }
+
+  public LatencyRecorder getLatency() {
+    return latency;
+  }
+
+  static class UploadTask {
+    String uri;
+    XMLWriteHandle content;
+    long bytes;
+
+    UploadTask(String uri,XMLWriteHandle content,long bytes) {
+      this.uri = uri;
+      this.content = content;
+      this.bytes = bytes;
+    }
+  }
+
+  class Worker extends Thread {
+    public void run() {
+      UploadTask task;
+      try {
+        while (STOP != (task = queue.take())) {
+          ClientPool.Member member = clients.acquire();
+          long start = System.nanoTime();
+          try {
+            member.documents.write(task.uri,task.content);
+            latency.record(System.nanoTime() - start);
+            completed.incrementAndGet();
+            progress.completed(1,task.bytes);
+            clients.release(member,1,true);
+          } catch (Exception e) {
+            clients.release(member,0,false);
+            failed.incrementAndGet();
+            progress.failed(1);
+            e.printStackTrace(System.out);
+          }
+        }
+      } catch (InterruptedException ie) {
+        // asked to stop early
+      }
+    }
+  }
+}
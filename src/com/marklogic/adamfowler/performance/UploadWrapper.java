@@ -4,25 +4,71 @@ import com.marklogic.client.DatabaseClient;
 import com.marklogic.client.document.XMLDocumentManager;
 import com.marklogic.client.io.Format;
 import com.marklogic.client.io.StringHandle;
+import com.marklogic.client.io.marker.XMLWriteHandle;
 
 public class UploadWrapper extends Thread {
   DatabaseClient client;
   XMLDocumentManager docMgr;
   String uri;
-  String xmlContent;
+  XMLWriteHandle content;
   Rendezvous rv;
+  LatencyRecorder latency;
+  ClientPool clients = null;
+  Progress progress = null;
+  long bytes = 0;
   
   public UploadWrapper(DatabaseClient client,XMLDocumentManager docMgr,String uri,String xmlContent,Rendezvous rv) {
+    this(client,docMgr,uri,new StringHandle().withFormat(Format.XML).with(xmlContent),rv,null);
+  }
+  
+  public UploadWrapper(DatabaseClient client,XMLDocumentManager docMgr,String uri,XMLWriteHandle content,Rendezvous rv,LatencyRecorder latency) {
     this.client = client;
     this.docMgr = docMgr;
     this.uri = uri;
-    this.xmlContent = xmlContent;
+    this.content = content;
     this.rv = rv;
+    this.latency = latency;
+  }
+  
+  /**
+   * Writes through whichever client the pool offers when the thread runs, and
+   * adds the bytes long content to progress once written.
+   */
+  public UploadWrapper(ClientPool clients,String uri,XMLWriteHandle content,long bytes,Rendezvous rv,LatencyRecorder latency,Progress progress) {
+    this(null,null,uri,content,rv,latency);
+    this.clients = clients;
+    this.bytes = bytes;
+    this.progress = progress;
   }
   
   public void run() {
     // do request in separate thread
-    docMgr.write(uri,new StringHandle().withFormat(Format.XML).with(xmlContent));
-    rv.increment();
+    ClientPool.Member member = null;
+    XMLDocumentManager manager = docMgr;
+    if (null != clients) {
+      member = clients.acquire();
+      manager = member.documents;
+    }
+    long start = System.nanoTime();
+    boolean success = false;
+    try {
+      manager.write(uri,content);
+      success = true;
+      if (null != latency) {
+        latency.record(System.nanoTime() - start);
+      }
+    } finally {
+      if (null != member) {
+        clients.release(member,success ? 1 : 0,success);
+      }
+      if (null != progress) {
+        if (success) {
+          progress.completed(1,bytes);
+        } else {
+          progress.failed(1);
+        }
+      }
+      rv.increment();
+    }
   }
 }
@@ -0,0 +1,28 @@
+package com.marklogic.adamfowler.performance;
+
+import com.marklogic.client.io.marker.XMLWriteHandle;
+
+/**
+ * Something that writes single documents on behalf of RESTThreaded, however
+ * it chooses to schedule the writes.
+ */
+public interface Uploader {
+  public void start();
+
+  /**
+   * Queues a write of bytes long content, blocking if the uploader already has
+   * as much work as it will accept.
+   */
+  public void submit(String uri,XMLWriteHandle content,long bytes) throws InterruptedException;
+
+  /**
+   * Waits for every submitted write to finish.
+   */
+  public void shutdown() throws InterruptedException;
+
+  public long getCompleted();
+
+  public long getFailed();
+
+  public LatencyRecorder getLatency();
+}
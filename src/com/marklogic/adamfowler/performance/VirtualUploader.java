@@ -0,0 +1,95 @@
+package com.marklogic.adamfowler.performance;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.marklogic.client.io.marker.XMLWriteHandle;
+
+/**
+ * Runs every write on its own virtual thread, with a semaphore capping how
+ * many are in flight. Blocking in a write only parks the virtual thread,
+ * so tens of thousands of concurrent writes cost little more than their
+ * request buffers.
+ * 
+ * Virtual threads need a Java 21 or later runtime. They are looked up
+ * reflectively so the rest of the harness still builds and runs on older JVMs.
+ */
+public class VirtualUploader implements Uploader {
+  ClientPool clients;
+  Semaphore inFlight;
+  ExecutorService executor;
+  AtomicLong completed = new AtomicLong();
+  AtomicLong failed = new AtomicLong();
+  LatencyRecorder latency;
+  Progress progress;
+
+  public VirtualUploader(ClientPool clients,int maxInFlight,LatencyRecorder latency,Progress progress) {
+    this.clients = clients;
+    this.latency = latency;
+    this.progress = progress;
+    this.inFlight = new Semaphore(maxInFlight);
+  }
+
+  public void start() {
+    executor = newVirtualThreadPerTaskExecutor();
+  }
+
+  public void submit(final String uri,final XMLWriteHandle content,final long bytes) throws InterruptedException {
+    inFlight.acquire();
+    executor.execute(new Runnable() {
+      public void run() {
+        ClientPool.Member member = clients.acquire();
+        long start = System.nanoTime();
+        try {
+          member.documents.write(uri,content);
+          latency.record(System.nanoTime() - start);
+          completed.incrementAndGet();
+          progress.completed(1,bytes);
+          clients.release(member,1,true);
+        } catch (Exception e) {
+          clients.release(member,0,false);
+          failed.incrementAndGet();
+          progress.failed(1);
+          e.printStackTrace(System.out);
+        } finally {
+          inFlight.release();
+        }
+      }
+    });
+  }
+
+  public void shutdown() throws InterruptedException {
+    executor.shutdown();
+    executor.awaitTermination(Long.MAX_VALUE,TimeUnit.MILLISECONDS);
+  }
+
+  public long getCompleted() {
+    return completed.get();
+  }
+
+  public long getFailed() {
+    return failed.get();
+  }
+
+  public LatencyRecorder getLatency() {
+    return latency;
+  }
+
+  static ExecutorService newVirtualThreadPerTaskExecutor() {
+    Method factory;
+    try {
+      factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+    } catch (NoSuchMethodException nsme) {
+      throw new UnsupportedOperationException("--executor=virtual needs a Java 21 or later runtime, this is " + System.getProperty("java.version"));
+    }
+    try {
+      return (ExecutorService) factory.invoke(null);
+    } catch (Exception e) {
+      throw new IllegalStateException("Could not create virtual thread executor",e);
+    }
+  }
+}
@@ -0,0 +1,65 @@
+package com.marklogic.adamfowler.performance;
+
+import java.net.URI;
+
+import com.marklogic.xcc.AdhocQuery;
+import com.marklogic.xcc.ContentSource;
+import com.marklogic.xcc.ContentSourceFactory;
+import com.marklogic.xcc.ResultSequence;
+import com.marklogic.xcc.Session;
+
+/**
+ * Asks the server for host and forest status over XCC, in the same way as the
+ * xccexample SimpleQueryRunner: one session and one AdhocQuery, resubmitted
+ * for every sample. The query flattens xdmp:host-status and
+ * xdmp:forest-status into attributes, and any figure this server version
+ * does not report comes back as 0.
+ */
+public class XCCStatusSource implements ServerStatusSource {
+  static final String STATUS_QUERY =
+      "xquery version \"1.0-ml\";\n"
+    + "declare variable $database as xs:string external;\n"
+    + "let $db := if ($database eq \"\") then xdmp:database() else xdmp:database($database)\n"
+    + "return <status>{\n"
+    + "  for $h in xdmp:hosts()\n"
+    + "  let $hs := xdmp:host-status($h)\n"
+    + "  return <host name=\"{$hs/*:host-name}\"\n"
+    + "    cpu-user=\"{fn:sum($hs/*:total-cpu-stat-user)}\"\n"
+    + "    cpu-system=\"{fn:sum($hs/*:total-cpu-stat-system)}\"\n"
+    + "    cpu-iowait=\"{fn:sum($hs/*:total-cpu-stat-iowait)}\"\n"
+    + "    memory-rss-mb=\"{fn:sum($hs/*:memory-process-rss)}\"/>,\n"
+    + "  for $f in xdmp:database-forests($db)\n"
+    + "  let $fs := xdmp:forest-status($f)\n"
+    + "  return <forest name=\"{$fs/*:forest-name}\"\n"
+    + "    stands=\"{fn:count($fs/*:stands/*:stand)}\"\n"
+    // an in-memory stand has nothing on disk until it is saved
+    + "    in-memory-stands=\"{fn:count($fs/*:stands/*:stand[*:disk-size = 0])}\"\n"
+    + "    merges=\"{fn:count($fs/*:merges/*:merge)}\"\n"
+    + "    journals-mb=\"{fn:sum($fs/*:journals-size)}\"\n"
+    + "    write-lock-wait-load=\"{fn:sum($fs/*:write-lock-wait-load)}\"\n"
+    + "    write-lock-hold-load=\"{fn:sum($fs/*:write-lock-hold-load)}\"/>\n"
+    + "}</status>";
+
+  Session session;
+  AdhocQuery request;
+
+  public XCCStatusSource(URI serverUri,String database) throws Exception {
+    ContentSource cs = ContentSourceFactory.newContentSource(serverUri);
+    session = cs.newSession();
+    request = session.newAdhocQuery(STATUS_QUERY);
+    request.setNewStringVariable("database",(null == database) ? "" : database);
+  }
+
+  public String fetchStatus() throws Exception {
+    ResultSequence rs = session.submitRequest(request);
+    try {
+      return rs.asString();
+    } finally {
+      rs.close();
+    }
+  }
+
+  public void close() {
+    session.close();
+  }
+}
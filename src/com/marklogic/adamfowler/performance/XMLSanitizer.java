@@ -0,0 +1,209 @@
+package com.marklogic.adamfowler.performance;
+
+/**
+ * Strips characters that XML 1.0 does not allow, and a leading XML
+ * declaration, from a UTF-8 byte stream without decoding it to chars.
+ *
+ * Kept characters are #x9 | #xA | #xD | [#x20-#xD7FF] | [#xE000-#xFFFD] |
+ * [#x10000-#x10FFFF]. Malformed and overlong sequences, and lone surrogates,
+ * are dropped. A surrogate pair that was encoded as two 3 byte sequences
+ * (CESU-8, as written by some Java tools) is re-encoded as the single 4 byte
+ * sequence it stands for.
+ *
+ * State is carried between calls to filter(), so input may be split anywhere,
+ * even in the middle of a character. An instance handles one document; it is
+ * not thread safe.
+ */
+public class XMLSanitizer {
+  static final byte[] DECLARATION = {'<','?','x','m','l'};
+
+  /** Most bytes filter() can write beyond the input it was given. */
+  public static final int MAX_CARRY = 8;
+
+  // declaration handling: matching its start, skipping its body, then done
+  static final int HEAD = 0;
+  static final int DECLARATION_BODY = 1;
+  static final int BODY = 2;
+
+  int head = HEAD;
+  int headMatched = 0;
+  boolean headQuestion = false;
+
+  // the sequence being decoded
+  int codePoint = 0;
+  int needed = 0;
+  int minimum = 0;
+  // a high surrogate from a 3 byte sequence, waiting for its low half
+  int highSurrogate = -1;
+
+  long removed = 0;
+
+  public XMLSanitizer() {
+  }
+
+  public XMLSanitizer(boolean keepDeclaration) {
+    if (keepDeclaration) {
+      head = BODY;
+    }
+  }
+
+  /**
+   * Filters len bytes from in, writing the result to out, and returns the
+   * number of bytes written. out must have room for len + MAX_CARRY bytes,
+   * since characters begun in an earlier call are written by this one. out
+   * may be in itself, filtering in place, if outOff + MAX_CARRY <= off.
+   */
+  public int filter(byte[] in,int off,int len,byte[] out,int outOff) {
+    int o = outOff;
+    int end = off + len;
+    for (int i = off;i < end;i++) {
+      int b = in[i] & 0xFF;
+      if (head != BODY) {
+        if (DECLARATION_BODY == head) {
+          // skip to the closing ?>
+          if ('>' == b && headQuestion) {
+            head = BODY;
+          }
+          headQuestion = ('?' == b);
+          removed++;
+          continue;
+        }
+        if (headMatched < DECLARATION.length && b == DECLARATION[headMatched]) {
+          headMatched++;
+          continue;
+        }
+        if (DECLARATION.length == headMatched && (' ' == b || '\t' == b || '\r' == b || '\n' == b)) {
+          // <?xml followed by whitespace, not <?xml-stylesheet
+          head = DECLARATION_BODY;
+          removed += headMatched + 1;
+          continue;
+        }
+        // not a declaration, so give back what was held and carry on
+        head = BODY;
+        for (int h = 0;h < headMatched;h++) {
+          out[o++] = DECLARATION[h];
+        }
+      }
+
+      if (0 == needed) {
+        if (b < 0x80) {
+          dropSurrogate();
+          if (b >= 0x20 || 0x9 == b || 0xA == b || 0xD == b) {
+            out[o++] = (byte) b;
+          } else {
+            removed++;
+          }
+        } else if (b >= 0xC2 && b <= 0xDF) {
+          codePoint = b & 0x1F;
+          needed = 1;
+          minimum = 0x80;
+        } else if (b >= 0xE0 && b <= 0xEF) {
+          codePoint = b & 0x0F;
+          needed = 2;
+          minimum = 0x800;
+        } else if (b >= 0xF0 && b <= 0xF4) {
+          codePoint = b & 0x07;
+          needed = 3;
+          minimum = 0x10000;
+        } else {
+          // stray continuation byte, or a lead byte that can only be overlong
+          dropSurrogate();
+          removed++;
+        }
+      } else if (0x80 == (b & 0xC0)) {
+        codePoint = (codePoint << 6) | (b & 0x3F);
+        if (0 == --needed) {
+          o = emit(codePoint,minimum,out,o);
+        }
+      } else {
+        // sequence cut short: drop it and look at this byte afresh
+        removed++;
+        needed = 0;
+        i--;
+      }
+    }
+    return o - outOff;
+  }
+
+  /**
+   * Ends the document, writing anything still held back, and returns the
+   * number of bytes written. out must have room for MAX_CARRY bytes.
+   */
+  public int finish(byte[] out,int outOff) {
+    int o = outOff;
+    if (HEAD == head) {
+      // a document shorter than a declaration
+      for (int h = 0;h < headMatched;h++) {
+        out[o++] = DECLARATION[h];
+      }
+    }
+    head = BODY;
+    if (needed > 0) {
+      removed++;
+      needed = 0;
+    }
+    dropSurrogate();
+    return o - outOff;
+  }
+
+  /**
+   * Number of characters (and stray bytes) stripped so far.
+   */
+  public long getRemoved() {
+    return removed;
+  }
+
+  int emit(int cp,int min,byte[] out,int o) {
+    if (cp < min) {
+      removed++; // overlong
+      dropSurrogate();
+      return o;
+    }
+    if (cp >= 0xD800 && cp <= 0xDBFF) {
+      dropSurrogate();
+      highSurrogate = cp;
+      return o;
+    }
+    if (cp >= 0xDC00 && cp <= 0xDFFF) {
+      if (highSurrogate < 0) {
+        removed++;
+        return o;
+      }
+      int pair = 0x10000 + ((highSurrogate - 0xD800) << 10) + (cp - 0xDC00);
+      highSurrogate = -1;
+      return encode(pair,out,o);
+    }
+    dropSurrogate();
+    if (0xFFFE == cp || 0xFFFF == cp || cp > 0x10FFFF) {
+      removed++;
+      return o;
+    }
+    return encode(cp,out,o);
+  }
+
+  void dropSurrogate() {
+    if (highSurrogate >= 0) {
+      removed++; // high surrogate with no low half
+      highSurrogate = -1;
+    }
+  }
+
+  static int encode(int cp,byte[] out,int o) {
+    if (cp < 0x80) {
+      out[o++] = (byte) cp;
+    } else if (cp < 0x800) {
+      out[o++] = (byte) (0xC0 | (cp >> 6));
+      out[o++] = (byte) (0x80 | (cp & 0x3F));
+    } else if (cp < 0x10000) {
+      out[o++] = (byte) (0xE0 | (cp >> 12));
+      out[o++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+      out[o++] = (byte) (0x80 | (cp & 0x3F));
+    } else {
+      out[o++] = (byte) (0xF0 | (cp >> 18));
+      out[o++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+      out[o++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+      out[o++] = (byte) (0x80 | (cp & 0x3F));
+    }
+    return o;
+  }
+}
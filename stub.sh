@@ -0,0 +1,5 @@
+#!/bin/sh
+
+# runs the stub REST server on its own, e.g. ./stub.sh --port=8011 --stub-latency=5
+. settings.sh
+java -cp ./bin:$LIBRARIES com.marklogic.adamfowler.performance.StubRESTServer "$@"